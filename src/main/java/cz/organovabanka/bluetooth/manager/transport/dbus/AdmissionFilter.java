@@ -0,0 +1,263 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides whether a device reported by bluez gets a managed handle, based on its Device1 properties.
+ * Denied addresses are always rejected, paired and trusted devices always admitted. Devices under
+ * the minimal RSSI are rejected. If any allow criterion (addresses, OUI prefixes, advertised service
+ * UUIDs, manufacturer ids) is set, devices have to match at least one of them.
+ * @author Lukas Rucka
+ */
+final class AdmissionFilter {
+    static final AdmissionFilter ADMIT_ALL = new AdmissionFilter(
+        Collections.<String>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet(),
+        Collections.<String>emptySet(), Collections.<Integer>emptySet(), null);
+
+    enum Verdict { ADMITTED, DENIED, REJECTED, OUT_OF_RANGE }
+
+    private final Set<String> allowAddresses;
+    private final Set<String> denyAddresses;
+    private final Set<String> allowOui;
+    private final Set<String> allowUuids;
+    private final Set<Integer> allowManufacturers;
+    private final Short minRssi;
+    // Device1 properties the configured criteria read, the only ones kept for rejected devices
+    private final Set<String> evaluated = new HashSet<String>(Arrays.asList("Paired", "Trusted"));
+
+    AdmissionFilter(Set<String> allowAddresses, Set<String> denyAddresses, Set<String> allowOui,
+            Set<String> allowUuids, Set<Integer> allowManufacturers, Short minRssi) {
+        this.allowAddresses = allowAddresses;
+        this.denyAddresses = denyAddresses;
+        this.allowOui = allowOui;
+        this.allowUuids = allowUuids;
+        this.allowManufacturers = allowManufacturers;
+        this.minRssi = minRssi;
+
+        if (!allowAddresses.isEmpty() || !allowOui.isEmpty()) {
+            evaluated.add("Address");
+        }
+        if (!allowUuids.isEmpty()) {
+            evaluated.add("UUIDs");
+            evaluated.add("ServiceData");
+        }
+        if (!allowManufacturers.isEmpty()) {
+            evaluated.add("ManufacturerData");
+        }
+        if (minRssi != null) {
+            evaluated.add("RSSI");
+        }
+    }
+
+    boolean isAdmitAll() {
+        return allowAddresses.isEmpty() && denyAddresses.isEmpty() && !hasAllowCriteria() && minRssi == null;
+    }
+
+    private boolean hasAllowCriteria() {
+        return !allowAddresses.isEmpty() || !allowOui.isEmpty() || !allowUuids.isEmpty() || !allowManufacturers.isEmpty();
+    }
+
+    Verdict evaluate(Map<String, Variant> properties) {
+        if (isAdmitAll()) {
+            return Verdict.ADMITTED;
+        }
+
+        String address = upper(value(properties, "Address"));
+        if (address != null && denyAddresses.contains(address)) {
+            return Verdict.DENIED;
+        }
+
+        if (Boolean.TRUE.equals(value(properties, "Paired")) || Boolean.TRUE.equals(value(properties, "Trusted"))) {
+            return Verdict.ADMITTED;
+        }
+
+        if (hasAllowCriteria() && !matchesAllowCriteria(address, properties)) {
+            return Verdict.REJECTED;
+        }
+
+        if (!isInRange(properties)) {
+            return Verdict.OUT_OF_RANGE;
+        }
+        return Verdict.ADMITTED;
+    }
+
+    /**
+     * Check delivered RSSI against minimal one, devices without RSSI are not advertising at the moment.
+     */
+    boolean isInRange(Map<String, Variant> properties) {
+        if (minRssi == null) {
+            return true;
+        }
+
+        Object rssi = value(properties, "RSSI");
+        return (rssi instanceof Number) && ((Number)rssi).shortValue() >= minRssi;
+    }
+
+    private boolean matchesAllowCriteria(String address, Map<String, Variant> properties) {
+        if (address != null) {
+            if (allowAddresses.contains(address)) {
+                return true;
+            }
+            if (address.length() >= 8 && allowOui.contains(address.substring(0, 8))) {
+                return true;
+            }
+        }
+
+        if (!allowUuids.isEmpty()) {
+            for (Object uuid : items(value(properties, "UUIDs"))) {
+                if (allowUuids.contains(String.valueOf(uuid).toLowerCase())) {
+                    return true;
+                }
+            }
+            Object serviceData = value(properties, "ServiceData");
+            if (serviceData instanceof Map) {
+                for (Object uuid : ((Map<?, ?>)serviceData).keySet()) {
+                    if (allowUuids.contains(String.valueOf(uuid).toLowerCase())) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        if (!allowManufacturers.isEmpty()) {
+            Object manufacturerData = value(properties, "ManufacturerData");
+            if (manufacturerData instanceof Map) {
+                for (Object id : ((Map<?, ?>)manufacturerData).keySet()) {
+                    if (id instanceof UInt16 && allowManufacturers.contains(((UInt16)id).intValue())) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Keep only properties the configured criteria read.
+     */
+    Map<String, Variant> retain(Map<String, Variant> properties) {
+        Map<String, Variant> retained = new HashMap<String, Variant>();
+        for (String name : evaluated) {
+            Variant value = properties.get(name);
+            if (value != null) {
+                retained.put(name, value);
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Merge changes into properties kept by {@link #retain}, telling whether the verdict may have changed.
+     */
+    boolean merge(Map<String, Variant> known, Map<String, Variant> changed, Collection<String> removed) {
+        boolean affected = false;
+        for (Map.Entry<String, Variant> entry : changed.entrySet()) {
+            if (evaluated.contains(entry.getKey())) {
+                known.put(entry.getKey(), entry.getValue());
+                affected = true;
+            }
+        }
+        for (String name : removed) {
+            affected |= (known.remove(name) != null);
+        }
+        return affected;
+    }
+
+    private static Object value(Map<String, Variant> properties, String name) {
+        Variant variant = properties.get(name);
+        return (variant == null) ? null : variant.getValue();
+    }
+
+    private static Collection<?> items(Object value) {
+        if (value instanceof Collection) {
+            return (Collection<?>)value;
+        }
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[])value);
+        }
+        return Collections.emptyList();
+    }
+
+    private static String upper(Object value) {
+        return (value == null) ? null : value.toString().toUpperCase();
+    }
+
+    /**
+     * Parse comma or whitespace separated list from configuration, collections are accepted too.
+     */
+    static Set<String> parseList(Object value) {
+        Set<String> items = new HashSet<String>();
+        if (value == null) {
+            return items;
+        }
+
+        Collection<?> raw = (value instanceof Collection) ? (Collection<?>)value : Arrays.asList(value.toString().split("[,\\s]+"));
+        for (Object item : raw) {
+            String trimmed = String.valueOf(item).trim();
+            if (!trimmed.isEmpty()) {
+                items.add(trimmed);
+            }
+        }
+        return items;
+    }
+
+    static Set<String> upperCase(Set<String> items) {
+        Set<String> result = new HashSet<String>();
+        for (String item : items) {
+            result.add(item.toUpperCase());
+        }
+        return result;
+    }
+
+    /**
+     * Expand 16 and 32 bit uuids to the full form bluez reports.
+     */
+    static Set<String> fullUuids(Set<String> items) {
+        Set<String> result = new HashSet<String>();
+        for (String item : items) {
+            result.add(ValueReads.fullUuid(item));
+        }
+        return result;
+    }
+
+    /**
+     * Parse manufacturer ids, decimal or hexadecimal with 0x prefix.
+     */
+    static Set<Integer> parseIds(Set<String> items) throws NumberFormatException {
+        Set<Integer> result = new HashSet<Integer>();
+        for (String item : items) {
+            result.add(Integer.decode(item));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.sputnikdev.bluetooth.manager.transport.Characteristic;
+
+/**
+ * Entries and outcomes of a batch of characteristic writes submitted to a single device at once.
+ * @author Lukas Rucka
+ */
+public final class BatchWrite {
+    /**
+     * Requested write procedure, passed to bluez as the write type option.
+     * Characteristics not supporting the requested procedure are written with a plain write request.
+     */
+    public enum Mode {
+        REQUEST("request", null),
+        COMMAND("command", "write-without-response"),
+        RELIABLE("reliable", "reliable-write");
+
+        private final String type;
+        private final String flag;
+
+        Mode(String type, String flag) {
+            this.type = type;
+            this.flag = flag;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        /** Characteristic flag required by the procedure, null if every writable characteristic supports it. */
+        String getFlag() {
+            return flag;
+        }
+    }
+
+    public enum Status {
+        /** Write confirmed by bluez. */
+        WRITTEN,
+        /** Device was not connected. */
+        NOT_READY,
+        /** Characteristic is gone, its handle was disposed. */
+        DISPOSED,
+        /** Write failed for another reason, see the cause. */
+        FAILED
+    }
+
+    /**
+     * A single write of the batch.
+     */
+    public static final class Entry {
+        private final Characteristic characteristic;
+        private final byte[] value;
+        private final Mode mode;
+
+        public Entry(Characteristic characteristic, byte[] value, Mode mode) {
+            this.characteristic = characteristic;
+            this.value = value;
+            this.mode = mode;
+        }
+
+        public Entry(Characteristic characteristic, byte[] value) {
+            this(characteristic, value, Mode.REQUEST);
+        }
+
+        public Characteristic getCharacteristic() {
+            return characteristic;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+    }
+
+    /**
+     * Outcome of a single write of the batch, in the order of entries.
+     */
+    public static final class Outcome {
+        private final Entry entry;
+        private final Mode mode;
+        private final Status status;
+        private final RuntimeException cause;
+
+        Outcome(Entry entry, Mode mode, Status status, RuntimeException cause) {
+            this.entry = entry;
+            this.mode = mode;
+            this.status = status;
+            this.cause = cause;
+        }
+
+        public Entry getEntry() {
+            return entry;
+        }
+
+        /** Write procedure actually used, may differ from the requested one. */
+        public Mode getMode() {
+            return mode;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isWritten() {
+            return status == Status.WRITTEN;
+        }
+
+        /** Failure of the write, null if written. */
+        public RuntimeException getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return entry.getCharacteristic().getURL() + ": " + status + ((cause == null) ? "" : " (" + cause.getMessage() + ")");
+        }
+    }
+
+    private BatchWrite() {
+        ;
+    }
+}
@@ -39,6 +39,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -47,6 +50,8 @@ import java.util.stream.Collectors;
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Adapter1;
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.ObjectManager;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 /**
  * A class representing Bluez adapters.
  * @author Lukas Rucka
@@ -55,70 +60,79 @@ class BluezAdapter extends BluezObjectBase implements Adapter {
 
     private static final Logger logger = LoggerFactory.getLogger(BluezAdapter.class);
 
-    private final Adapter1 remoteInterface;
-
-    private Notification<Boolean> notificationDiscovering = null;
-    private Notification<Boolean> notificationPowered = null;
+    private volatile Notification<Boolean> notificationDiscovering = null;
+    private volatile Notification<Boolean> notificationPowered = null;
 
     BluezAdapter(BluezContext context, String dbusObjectPath) throws BluezException {
-        super(context, dbusObjectPath, BluezCommons.BLUEZ_IFACE_ADAPTER);
+        this(context, dbusObjectPath, Collections.<String, Variant>emptyMap());
+    }
 
-        try {
-            this.remoteInterface = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, dbusObjectPath, Adapter1.class);
-        } catch (DBusException e) {
-            throw new BluezException("Unable to access dbus objects for " + dbusObjectPath, e); 
-        }
+    BluezAdapter(BluezContext context, String dbusObjectPath, Map<String, Variant> properties) throws BluezException {
+        super(context, dbusObjectPath, BluezCommons.BLUEZ_IFACE_ADAPTER);
 
-        cache.set("Powered", new Boolean(false));
-        cache.set("Discovering", new Boolean(false));
-        cache.set("Discoverable", new Boolean(false));
+        cache.setDefault("Powered", new Boolean(false));
+        cache.setDefault("Discovering", new Boolean(false));
+        cache.setDefault("Discoverable", new Boolean(false));
 
-        cache.set("Address", "XX:XX:XX:XX:XX:XX");
+        cache.setDefault("Address", "XX:XX:XX:XX:XX:XX");
 
-        cache.set("Alias", "Unknown");
-        cache.set("Name", "Unknown");
+        cache.setDefault("Alias", "Unknown");
+        cache.setDefault("Name", "Unknown");
 
-        cache.set("Class", new UInt32(0));
+        cache.setDefault("Class", new UInt32(0));
 
         cache.set("url", BluezCommons.DBUSB_PROTOCOL_NAME + "://XX:XX:XX:XX:XX:XX/YY:YY:YY:YY:YY:YY");
 
-        setupHandlers();
+        // take values delivered by bluez, resort to remote calls only for missing ones
+        cache.update(properties);
+        if (!properties.containsKey("Address")) {
+            getAddressRemote();
+        }
+
         updateURL();
     }
 
-    private void setupHandlers() throws BluezException {
-        this.handlers.put("Powered", (powered) -> {
-            if (notificationPowered == null) {
+    private static final PropertyDispatch<BluezAdapter> DISPATCH = PropertyDispatch.<BluezAdapter>builder()
+        .on("Powered", (adapter, powered) -> {
+            Notification<Boolean> notification = adapter.notificationPowered;
+            if (notification == null) {
                 return;
             }
 
             BluezFactory.notifySafely(() -> {
-                notificationPowered.notify( (Boolean)(powered.getValue()) );
-            }, logger, dbusObjectPath + ":Powered");
-        });
-        this.handlers.put("Discovering", (discovering) -> {
-            if (notificationDiscovering == null) {
+                notification.notify( (Boolean)(powered.getValue()) );
+            }, logger, adapter.dbusObjectPath + ":Powered");
+        })
+        .on("Discovering", (adapter, discovering) -> {
+            Notification<Boolean> notification = adapter.notificationDiscovering;
+            if (notification == null) {
                 return;
             }
 
             BluezFactory.notifySafely(() -> {
-                notificationDiscovering.notify((Boolean)discovering.getValue());
-            }, logger, dbusObjectPath + ":Discovering");
-        });
+                notification.notify((Boolean)discovering.getValue());
+            }, logger, adapter.dbusObjectPath + ":Discovering");
+        })
+        .build();
+
+    @Override
+    public void commitNotifications(Map<String, Variant> changed) {
+        DISPATCH.dispatch(this, changed);
     }
 
     protected Logger getLogger() {
         return logger;
     }
 
+    private Adapter1 remoteInterface() throws BluezException {
+        return getRemoteInterface(Adapter1.class);
+    }
+
     /* dbus & openhab handles */
 
     protected void updateURL() {
-        try {
-            cache.set("url", BluezCommons.DBUSB_PROTOCOL_NAME + "://" + getAddress());
-        } catch (BluezException e) {
-            getLogger().error("{}: Unable to update URL, reason: {}", dbusObjectPath, e.getMessage());
-        }
+        // local part only
+        cache.set("url", BluezCommons.DBUSB_PROTOCOL_NAME + "://" + cache.<String>get("Address"));
     }
 
     /* begin remote adapter methods */
@@ -130,8 +144,8 @@ class BluezAdapter extends BluezObjectBase implements Adapter {
         }
 
         try {
-            callWithDispose(
-                () -> { remoteInterface.StopDiscovery(); },
+            callWithDispose("StopDiscovery",
+                () -> { remoteInterface().StopDiscovery(); },
                 () -> { allowRemoteCalls = false; context.disposeAdapter(dbusObjectPath, false, true); }
             );
         } catch (DBusExecutionException e) {
@@ -171,8 +185,8 @@ class BluezAdapter extends BluezObjectBase implements Adapter {
         filterOptions.put("RSSI", new Variant<Short>(new Short((short)-100), "n"));
 
         try {
-            callWithDispose(
-                () -> { remoteInterface.SetDiscoveryFilter(filterOptions); },
+            callWithDispose("SetDiscoveryFilter",
+                () -> { remoteInterface().SetDiscoveryFilter(filterOptions); },
                 () -> { allowRemoteCalls = false; context.disposeAdapter(dbusObjectPath, false, true); }
             );
         } catch (RuntimeException e) {
@@ -180,8 +194,8 @@ class BluezAdapter extends BluezObjectBase implements Adapter {
         }
 
         try {
-            callWithDispose(
-                () -> { remoteInterface.StartDiscovery(); },
+            callWithDispose("StartDiscovery",
+                () -> { remoteInterface().StartDiscovery(); },
                 () -> { allowRemoteCalls = false; context.disposeAdapter(dbusObjectPath, false, true); }
             );
         } catch (DBusExecutionException e) {
@@ -205,7 +219,7 @@ class BluezAdapter extends BluezObjectBase implements Adapter {
     public void removeDevice(String devicePath) {
         getLogger().debug("{}: Remove device {}", dbusObjectPath, devicePath);
         try {
-            remoteInterface.RemoveDevice(new Path(devicePath));
+            remoteInterface().RemoveDevice(new Path(devicePath));
         } catch (RuntimeException e) { 
             getLogger().error("{}: Failed to remove device {}, reason: {}", dbusObjectPath, devicePath, e.getMessage()); 
         }
@@ -245,19 +259,23 @@ class BluezAdapter extends BluezObjectBase implements Adapter {
 
         Map<Path, Map<String, Map<String, Variant>>> allObjects = null;
         try {
-            ObjectManager objectManager = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+            ObjectManager objectManager = context.getObjectManager();
             allObjects = objectManager.GetManagedObjects();
-        } catch (DBusException e) {
-            throw new BluezException("Unable to enumerate bluetooth objects when processing " + dbusObjectPath, e);
         } catch (RuntimeException e) {
             throw new BluezException("Unable to enumerate bluetooth objects when processing " + dbusObjectPath, e);
         }
 
         try {
             List<BluezDevice> allDevices = allObjects.entrySet().stream()
-                .map((entry) -> { return entry.getKey().toString(); })
-                .filter((path) -> { return devicePattern.matcher(path).matches(); })
-                .map((path) -> { return context.getManagedDevice(path, true); })
+                .filter((entry) -> { return devicePattern.matcher(entry.getKey().toString()).matches(); })
+                // evicted handles are recreated by the next signal of the device, not by polling
+                .filter((entry) -> { return !context.isEvicted(entry.getKey().toString()); })
+                .filter((entry) -> {
+                    return context.admitDevice(entry.getKey().toString(), entry.getValue().get(BluezCommons.BLUEZ_IFACE_DEVICE));
+                })
+                .map((entry) -> {
+                    return context.getManagedDevice(entry.getKey().toString(), entry.getValue().get(BluezCommons.BLUEZ_IFACE_DEVICE));
+                })
                 .filter((device) -> { return (device.getRSSI() != 0); })
                 .collect(Collectors.toList());
             return Collections.unmodifiableList(allDevices);
@@ -417,37 +435,66 @@ class BluezAdapter extends BluezObjectBase implements Adapter {
         try {
             this.<Boolean>writeProperty(primaryInterface, "Powered", powered);
         } catch (DBusException e) {
-            getLogger().error("{}:{} Failed to write property, reason: {}", dbusObjectPath, "Alias", e.getMessage());
+            getLogger().error("{}:{} Failed to write property, reason: {}", dbusObjectPath, "Powered", e.getMessage());
             throw new BluezException("Failed to power device " + dbusObjectPath, e);
         }   
         // do not update cache just yet
     }   
 
-    @Override
-    public void setPowered(boolean powered) throws BluezException {
-        // local is a bit complicated
-        try {
-            // bluetooth manager calls power down to "reset" angry devices
-            if (powered) {
-                Thread.sleep(500);
+    /**
+     * Power adapter on or off, without waiting for it.
+     * The future completes, once bluez reports the adapter in requested state and the configured settle time
+     * passes. It fails with TimeoutException, if the state is not reported within the power timeout.
+     * @return future of the power state reported
+     */
+    public CompletableFuture<Boolean> setPoweredAsync(boolean powered) {
+        // call remote part
+        if (allowRemoteCalls) {
+            try {
+                setPoweredRemote(powered);
+            } catch (BluezException e) {
+                CompletableFuture<Boolean> failed = new CompletableFuture<Boolean>();
+                failed.completeExceptionally(e);
+                return failed;
             }
-        } catch (InterruptedException e) { 
-            /* silently ignore */
+        } else {
+            return CompletableFuture.completedFuture(cache.<Boolean>get("Powered"));
         }
 
-        // call remote part
-        if (allowRemoteCalls) {
-            setPoweredRemote(powered);
+        // local part - bluez does not signal writes of the current state, the cached one is checked first
+        CompletableFuture<Boolean> reported = this.<Boolean>awaitProperty("Powered", (state) -> {
+            return state.booleanValue() == powered;
+        }, context.getPowerTimeout(), MILLISECONDS);
+
+        long settleTime = context.getPowerSettleTime();
+        if (settleTime <= 0) {
+            return reported;
         }
+        return reported.thenCompose((state) -> {
+            CompletableFuture<Boolean> settled = new CompletableFuture<Boolean>();
+            BluezExecutors.signalService().schedule(() -> { settled.complete(state); }, settleTime, MILLISECONDS);
+            return settled;
+        });
+    }
 
+    @Override
+    public void setPowered(boolean powered) throws BluezException {
+        // the power state wait expires on its own, the caller is not to be blocked longer than that and the settle time
+        long limit = context.getPowerTimeout() + context.getPowerSettleTime();
         try {
-            if (!powered) {
-                Thread.sleep(500);
+            setPoweredAsync(powered).get(limit, MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            getLogger().warn("{}: Power state not reported within {} ms", dbusObjectPath, limit);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BluezException) {
+                throw (BluezException)e.getCause();
             }
-        } catch (InterruptedException e) { 
-            /* silently ignore */
+            // bluetooth manager power cycles adapters to reset them, slow ones are to be retried by it
+            getLogger().warn("{}: {}", dbusObjectPath, e.getCause().getMessage());
         }
-    }  
+    }
 
     private void isDiscoverableRemote() {
         // remote - update cache
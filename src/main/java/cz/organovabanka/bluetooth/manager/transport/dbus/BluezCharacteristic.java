@@ -21,9 +21,12 @@ package cz.organovabanka.bluetooth.manager.transport.dbus;
  */
 
 import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusAsyncReply;
 import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.NotConnected;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +40,8 @@ import org.sputnikdev.bluetooth.manager.transport.Notification;
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.GattCharacteristic1;
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.ObjectManager;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -44,11 +49,19 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import java.util.stream.Stream;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 /**
  * A class representing gatt device characteristics (dbus implementation).
  * @author Lukas Rucka
@@ -57,6 +70,16 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
     private static final String CONFIGURATION_UUID = "00002902-0000-1000-8000-00805f9b34fb";
     private static final Logger logger = LoggerFactory.getLogger(BluezCharacteristic.class);
 
+    // shared option maps of the hot gatt calls, so that no map is built per call
+    private static final Map<String, Variant> NO_OPTIONS = Collections.<String, Variant>emptyMap();
+
+    // ATT MTU every connection starts with, and the longest value the spec allows
+    private static final int ATT_DEFAULT_MTU = 23;
+    private static final int MAX_ATTRIBUTE_LENGTH = 512;
+    // offsets are passed as uint16
+    private static final int MAX_OFFSET = 0xffff;
+    private static final Pattern INVALID_OFFSET_PATTERN = Pattern.compile("^.*[Ii]nvalid ?[Oo]ffset.*$");
+
     private enum AccessTypeMapping {
         broadcast(CharacteristicAccessType.BROADCAST),
         read(CharacteristicAccessType.READ),
@@ -86,59 +109,108 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
         }
     }
 
-    private final GattCharacteristic1 remoteInterface;
-
-    private Notification<byte[]> notificationData = null;
+    private static final Notification<byte[]>[] NO_SUBSCRIBERS = new Notification[0];
+
+    // value subscribers, copied on write and read once per notification
+    private volatile Notification<byte[]>[] subscribers = NO_SUBSCRIBERS;
+    // guards subscribe/unsubscribe along with their StartNotify/StopNotify calls
+    private final ReentrantLock subscriptionLock = new ReentrantLock();
+    // whether the notification session was started by us
+    private final AtomicBoolean notifyStarted = new AtomicBoolean(false);
+    // whether the bus daemon was asked to deliver our property changes
+    private final AtomicBoolean signalsMatched = new AtomicBoolean(false);
+
+    // remote read joined by concurrent readers, guarded by readLock
+    private final Object readLock = new Object();
+    private CompletableFuture<byte[]> readInFlight = null;
+    // last value read, shared by readers and never handed out without copying
+    private volatile byte[] lastValue = null;
+    private volatile long lastValueTime = 0;
+    // bumped by every invalidation, reads started before are not published, guarded by readLock
+    private long valueGeneration = 0;
+
+    // coalesced writes, the latest value written while a write is in flight and outcome its writers wait for,
+    // guarded by writeLock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private boolean writeInFlight = false;
+    private byte[] pendingWrite = null;
+    private CompletableFuture<Void> pendingOutcome = null;
 
     BluezCharacteristic(BluezContext context, String dbusObjectPath) throws BluezException {
-        super(context, dbusObjectPath, BluezCommons.BLUEZ_IFACE_CHARACTERISTIC);
+        this(context, dbusObjectPath, Collections.<String, Variant>emptyMap());
+    }
 
-        try {
-            this.remoteInterface = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, dbusObjectPath, GattCharacteristic1.class);
-        } catch (DBusException e) {
-            throw new BluezException("Unable to bind remote object interface on " + dbusObjectPath + ": " + e.getMessage(), e);
-        }
+    BluezCharacteristic(BluezContext context, String dbusObjectPath, Map<String, Variant> properties) throws BluezException {
+        super(context, dbusObjectPath, BluezCommons.BLUEZ_IFACE_CHARACTERISTIC);
 
 	Vector<String> dummy = new Vector();
 	dummy.add("none");
 
-        cache.set("Notifying", new Boolean(false));
-        cache.set("Flags", new Variant(dummy, "as"));
-        cache.set("UUID", "invalid-uuid");
+        cache.setDefault("Notifying", new Boolean(false));
+        cache.setDefault("Flags", new Variant(dummy, "as"));
+        cache.setDefault("UUID", "invalid-uuid");
+        cache.setDefault("MTU", new UInt16(ATT_DEFAULT_MTU));
         cache.set("url", BluezCommons.DBUSB_PROTOCOL_NAME 
             + "://XX:XX:XX:XX:XX:XX/YY:YY:YY:YY:YY:YY/0000180f-0000-1000-8000-00805f9b34fb/00002a19-0000-1000-8000-00805f9b34fb");
 
-        setupHandlers();
+        // take values delivered by bluez, resort to remote calls only for missing ones
+        cache.update(properties);
+        if (!properties.containsKey("UUID")) {
+            getUUIDRemote();
+        }
+
         updateURL();
     }
 
-    private void setupHandlers() {
-        this.handlers.put("Value", (data) -> {
-            if (notificationData == null) {
+    private static final PropertyDispatch<BluezCharacteristic> DISPATCH = PropertyDispatch.<BluezCharacteristic>builder()
+        .on("Value", (characteristic, data) -> {
+            // value read last is stale now
+            characteristic.invalidateValue();
+
+            Notification<byte[]>[] notifications = characteristic.subscribers;
+            if (notifications.length == 0) {
                 return;
             }
 
-            BluezFactory.notifySafely(() -> {
-                byte[] realData = (byte[])(data.getValue());
+            // all subscribers share the single decoded buffer
+            byte[] realData = (byte[])(data.getValue());
+            if (characteristic.getLogger().isTraceEnabled()) {
+                characteristic.getLogger().trace("{}: Data notification received: {}", 
+                    characteristic.dbusObjectPath, DataConversionUtils.convert(realData, 16));
+            }
 
-                if (getLogger().isTraceEnabled()) {
-                    getLogger().trace("{}: Data notification received: {}", dbusObjectPath, DataConversionUtils.convert(realData, 16));
-                }
-                notificationData.notify(realData);
-            }, logger, dbusObjectPath + ":Value");
-        });
+            String source = characteristic.dbusObjectPath + ":Value";
+            for (Notification<byte[]> notification : notifications) {
+                BluezFactory.notifySafely(() -> { notification.notify(realData); }, logger, source);
+            }
+        })
+        .on("Notifying", (characteristic, notifying) -> {
+            if (!Boolean.TRUE.equals(notifying.getValue())) {
+                // session ended by bluez (e.g. disconnect), next subscriber has to start a new one
+                characteristic.notifyStarted.set(false);
+            }
+        })
+        .build();
+
+    @Override
+    public void commitNotifications(Map<String, Variant> changed) {
+        DISPATCH.dispatch(this, changed);
     }
 
     protected Logger getLogger() {
         return logger;
     }
 
+    private GattCharacteristic1 remoteInterface() throws BluezException {
+        return getRemoteInterface(GattCharacteristic1.class);
+    }
+
     protected void updateURL() throws BluezException {
-        // this is the remote part of getURL
+        // derived from the managed service, which is created only when not known yet
         try {
             String servicePath = getServicePath();
-            BluezService service = new BluezService(context, servicePath);
-            URL url = service.getURL().copyWithCharacteristic(getUUID());
+            BluezService service = context.getManagedService(servicePath, true);
+            URL url = service.getURL().copyWithCharacteristic(cache.<String>get("UUID"));
             cache.set("url", url.toString());
         } catch (BluezException e) {
             getLogger().error("{}: Unable to update URL, reason: {}", dbusObjectPath, e.getMessage());
@@ -156,14 +228,17 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
             return;
         }
 
-        disableValueNotificationsRemote();
+        if (notifyStarted.getAndSet(false)) {
+            disableValueNotificationsRemote();
+        }
     }
 
     protected void disposeLocal(boolean doRemoteCalls, boolean recurse) {
         // local part
 
         // first disable notifications
-        disableValueNotifications();
+        subscribers = NO_SUBSCRIBERS;
+        unmatchSignals();
     }
 
     public static void dispose(BluezCharacteristic obj, boolean doRemoteCalls, boolean recurse) {
@@ -200,6 +275,14 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
             .collect(Collectors.toSet());
     }
 
+    /**
+     * Tells, whether the characteristic has given bluez flag, local part only.
+     */
+    boolean hasFlag(String flag) {
+        Collection<String> flags = cache.<Collection<String>>get("Flags");
+        return flags != null && flags.contains(flag);
+    }
+
     private void getFlagsRemote() {
         // remote - update cache
         // property - no action if read fails
@@ -236,11 +319,9 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
             return null;
         }
 
-        final Map<String, Variant> options = new HashMap<String, Variant>();
-
         try {
-            return this.<byte[]>callWithDispose(
-                () -> { return (byte[])(remoteInterface.ReadValue(options)); },
+            return this.<byte[]>callWithDispose("ReadValue",
+                () -> { return remoteInterface().ReadValue(NO_OPTIONS); },
                 () -> { allowRemoteCalls = false; context.disposeCharacteristic(dbusObjectPath, false, true); }
             );
         } catch (NotReadyException e) {
@@ -265,19 +346,132 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
         }
     }
 
+    /**
+     * Read characteristic value. Concurrent readers join a single remote read and get copies
+     * of its result, which may be reused for the configured reuse window.
+     */
     @Override
     public byte[] readValue() throws BluezException, NotReadyException {
         getLogger().debug("{}: Reading value", dbusObjectPath);
-        byte[] value = null;
+        ValueReads reads = context.getValueReads();
+
+        // local part - cached value or value read just now
+        byte[] recent = lastValue;
+        long ttl = reads.getTtl(cache.<String>get("UUID"));
+        if (ttl > 0) {
+            if (recent != null && (ttl == ValueReads.INFINITE || System.nanoTime() - lastValueTime < MILLISECONDS.toNanos(ttl))) {
+                reads.hits.increment();
+                return recent.clone();
+            }
+            reads.misses.increment();
+        }
+
+        long reuseWindow = reads.getReuseWindow();
+        if (reuseWindow > 0 && recent != null && System.nanoTime() - lastValueTime < MILLISECONDS.toNanos(reuseWindow)) {
+            reads.reused.increment();
+            return recent.clone();
+        }
+
+        CompletableFuture<byte[]> flight;
+        boolean leader = false;
+        long generation;
+        synchronized (readLock) {
+            generation = valueGeneration;
+            flight = readInFlight;
+            if (flight == null) {
+                flight = new CompletableFuture<byte[]>();
+                readInFlight = flight;
+                leader = true;
+            }
+        }
+
+        if (!leader) {
+            reads.coalesced.increment();
+            byte[] shared = awaitRead(flight);
+            return (shared == null) ? null : shared.clone();
+        }
+
+        // remote part
+        try {
+            reads.remote.increment();
+            byte[] value = readValueRemote();
+
+            if (getLogger().isTraceEnabled()) {
+                getLogger().trace("{}: Value read: {}", dbusObjectPath, DataConversionUtils.convert(value, 16));
+            }
+            cache.update("Value", new Variant(value, "ay"));
+
+            byte[] shared = (value == null) ? null : value.clone();
+            synchronized (readLock) {
+                // a write or change while the read was in flight makes the value read stale
+                if (shared != null && generation == valueGeneration) {
+                    lastValueTime = System.nanoTime();
+                    lastValue = shared;
+                }
+            }
+            flight.complete(shared);
+            return value;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (readLock) {
+                readInFlight = null;
+            }
+        }
+    }
+
+    /**
+     * Forget the value read last, e.g. as the device disconnected or its services changed.
+     */
+    void invalidateValue() {
+        synchronized (readLock) {
+            ++valueGeneration;
+            lastValue = null;
+        }
+    }
+
+    private byte[] awaitRead(CompletableFuture<byte[]> flight) throws BluezException, NotReadyException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BluezException("Interrupted while reading value of " + dbusObjectPath, e);
+        } catch (ExecutionException e) {
+            // rethrow failure of the joined read as is, so that NotReadyException is kept
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new BluezException("Unable to read value of " + dbusObjectPath + ": " + e.getCause(), e.getCause());
+        }
+    }
 
-        value = readValueRemote();
+    /**
+     * Wait for property value, see {@link BluezObjectBase#awaitProperty}. Characteristic signals are
+     * subscribed only for notifications, so every waiter holds the match rule of this characteristic
+     * until it completes.
+     */
+    @Override
+    public <T> CompletableFuture<T> awaitProperty(String name, Predicate<T> predicate, long timeout, TimeUnit unit) {
+        String match = SignalSubscriptions.characteristic(dbusObjectPath);
+        context.addSignalMatch(match);
+        CompletableFuture<T> waiter = super.awaitProperty(name, predicate, timeout, unit);
+        // released off the completing thread, which may be the signal dispatch
+        waiter.whenCompleteAsync((value, error) -> { context.removeSignalMatch(match); },
+            BluezExecutors.repopulationService());
+        return waiter;
+    }
 
-        if (getLogger().isTraceEnabled()) {
-            getLogger().trace("{}: Value read: {}", dbusObjectPath, DataConversionUtils.convert(value, 16));
+    private void matchSignals() {
+        if (signalsMatched.compareAndSet(false, true)) {
+            context.addSignalMatch(SignalSubscriptions.characteristic(dbusObjectPath));
         }
-        cache.update("Value", new Variant(value, "ay"));
+    }
 
-        return value;
+    private void unmatchSignals() {
+        if (signalsMatched.compareAndSet(true, false)) {
+            context.removeSignalMatch(SignalSubscriptions.characteristic(dbusObjectPath));
+        }
     }
 
     private void enableValueNotificationsRemote() throws BluezException {
@@ -287,8 +481,8 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
         }
 
         try {
-            callWithDispose(
-                () -> { remoteInterface.StartNotify(); },
+            callWithDispose("StartNotify",
+                () -> { remoteInterface().StartNotify(); },
                 () -> { allowRemoteCalls = false; context.disposeCharacteristic(dbusObjectPath, false, true); }
             );
         } catch (RuntimeException e) {
@@ -296,11 +490,66 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
         }
     }
 
+    /**
+     * Subscribe for value notifications. Notification session is started for the first subscriber only.
+     */
     @Override
     public void enableValueNotifications(Notification<byte[]> notification) throws BluezException {
         getLogger().trace("{}: Enable value notifications", dbusObjectPath);
-        enableValueNotificationsRemote();
-        notificationData = notification;
+
+        subscriptionLock.lock();
+        try {
+            Notification<byte[]>[] current = subscribers;
+            for (Notification<byte[]> subscriber : current) {
+                if (subscriber == notification) {
+                    return;
+                }
+            }
+
+            // subscribe before starting, so that no value gets lost
+            matchSignals();
+            if (!notifyStarted.get() || !cache.<Boolean>get("Notifying")) {
+                try {
+                    enableValueNotificationsRemote();
+                    notifyStarted.set(true);
+                    // do not wait for the property change, so that the next subscriber sees the session
+                    cache.update("Notifying", Boolean.TRUE);
+                } catch (RuntimeException e) {
+                    if (current.length == 0) {
+                        unmatchSignals();
+                    }
+                    throw e;
+                }
+            }
+
+            Notification<byte[]>[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = notification;
+            subscribers = updated;
+        } finally {
+            subscriptionLock.unlock();
+        }
+    }
+
+    /**
+     * Start notification session again for current subscribers, e.g. as bluez restarted.
+     */
+    void resumeNotifications() {
+        subscriptionLock.lock();
+        try {
+            if (subscribers.length == 0 || cache.<Boolean>get("Notifying")) {
+                return;
+            }
+
+            matchSignals();
+            enableValueNotificationsRemote();
+            notifyStarted.set(true);
+            cache.update("Notifying", Boolean.TRUE);
+            getLogger().debug("{}: Value notifications resumed", dbusObjectPath);
+        } catch (RuntimeException e) {
+            getLogger().warn("{}: Unable to resume value notifications: {}", dbusObjectPath, e.getMessage());
+        } finally {
+            subscriptionLock.unlock();
+        }
     }
 
     private void disableValueNotificationsRemote() throws BluezException {
@@ -310,8 +559,8 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
         }
 
         try {
-            callWithDispose(
-                () -> { remoteInterface.StopNotify(); }, 
+            callWithDispose("StopNotify",
+                () -> { remoteInterface().StopNotify(); }, 
                 () -> { allowRemoteCalls = false; context.disposeCharacteristic(dbusObjectPath, false, true); }
             );
         } catch (RuntimeException e) {
@@ -319,11 +568,62 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
         }
     }
 
+    /**
+     * Unsubscribe all value notification subscribers, stopping the notification session.
+     */
     @Override
     public void disableValueNotifications() throws BluezException {
         getLogger().trace("{}: Disable value notifications", dbusObjectPath);
-        notificationData = null;
-        disableValueNotificationsRemote();
+        subscriptionLock.lock();
+        try {
+            subscribers = NO_SUBSCRIBERS;
+            stopNotifications();
+        } finally {
+            subscriptionLock.unlock();
+        }
+    }
+
+    /**
+     * Unsubscribe single value notification subscriber, the session is stopped with the last one.
+     */
+    public void disableValueNotifications(Notification<byte[]> notification) throws BluezException {
+        getLogger().trace("{}: Disable value notifications of single subscriber", dbusObjectPath);
+        subscriptionLock.lock();
+        try {
+            Notification<byte[]>[] current = subscribers;
+            int index = -1;
+            for (int i = 0; i < current.length; ++i) {
+                if (current[i] == notification) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+
+            Notification<byte[]>[] updated = Arrays.copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            subscribers = updated;
+
+            if (updated.length == 0) {
+                stopNotifications();
+            }
+        } finally {
+            subscriptionLock.unlock();
+        }
+    }
+
+    private void stopNotifications() throws BluezException {
+        try {
+            // session known to be ended by bluez or never started by us needs no call, invalidated state does not tell
+            if (notifyStarted.getAndSet(false) && !Boolean.FALSE.equals(cache.<Boolean>getKnown("Notifying"))) {
+                disableValueNotificationsRemote();
+                cache.update("Notifying", Boolean.FALSE);
+            }
+        } finally {
+            unmatchSignals();
+        }
     }
 
     private void writeValueRemote(byte[] bytes) throws BluezException {
@@ -332,11 +632,9 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
             return;
         }
 
-        Map<String, Variant> options = Collections.emptyMap();
-
         try {
-            callWithDispose(
-                () -> { remoteInterface.WriteValue(bytes, options); },
+            callWithDispose("WriteValue",
+                () -> { remoteInterface().WriteValue(bytes, NO_OPTIONS); },
                 () -> { allowRemoteCalls = false; context.disposeCharacteristic(dbusObjectPath, false, true); }
             );
         } catch (RuntimeException e) {
@@ -347,42 +645,326 @@ class BluezCharacteristic extends BluezObjectBase implements Characteristic {
     @Override
     public boolean writeValue(byte[] bytes) throws BluezException {
         getLogger().debug("{}: Writing value", dbusObjectPath);
+        // value read last is stale, even if the write fails half way
+        invalidateValue();
+
+        ValueWrites writes = context.getValueWrites();
+        if (writes.isCoalesced(cache.<String>get("UUID"))) {
+            return writeCoalesced(writes, bytes);
+        }
+
+        writes.remote.increment();
         writeValueRemote(bytes);
         return true;
     }
 
-    @Override
-    public boolean isNotificationConfigurable() {
-        // has only local version, as remote calls are done only as scans
-        Pattern descriptorPattern = Pattern.compile("^" + this.dbusObjectPath + "/descriptor[0-9a-fA-F]+$");
+    /**
+     * Write value keeping at most one write in flight. Value written meanwhile is parked, replacing
+     * any value parked before, and sent by a write worker once the write in flight is done, whatever
+     * its outcome. Writers of parked values wait for the outcome of the latest value parked.
+     */
+    private boolean writeCoalesced(ValueWrites writes, byte[] bytes) throws BluezException {
+        CompletableFuture<Void> parked = null;
+        writeLock.lock();
+        try {
+            if (writeInFlight) {
+                if (pendingWrite != null) {
+                    writes.superseded.increment();
+                } else {
+                    pendingOutcome = new CompletableFuture<Void>();
+                }
+                pendingWrite = bytes.clone();
+                parked = pendingOutcome;
+            } else {
+                writeInFlight = true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (parked != null) {
+            return awaitWrite(parked);
+        }
 
         try {
-            ObjectManager objectManager = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+            writes.remote.increment();
+            writeValueRemote(bytes);
+            return true;
+        } finally {
+            writeDone(writes);
+        }
+    }
 
-            Map<Path, Map<String, Map<String, Variant>>> allObjects = objectManager.GetManagedObjects();
-            if (allObjects == null) {
-                return false;
+    // ends the write in flight, unless values were parked meanwhile, which are handed over to a worker
+    private void writeDone(ValueWrites writes) {
+        writeLock.lock();
+        try {
+            if (pendingWrite == null) {
+                writeInFlight = false;
+                return;
             }
+        } finally {
+            writeLock.unlock();
+        }
+        BluezExecutors.writeService().execute(() -> { writePending(writes); });
+    }
 
-            for (Map.Entry<Path, Map<String, Map<String, Variant>>> entry : allObjects.entrySet()) {
-                if (!descriptorPattern.matcher(entry.getKey().toString()).matches()) {
-                    continue;
-                }
+    private void writePending(ValueWrites writes) {
+        byte[] next;
+        CompletableFuture<Void> outcome;
+        writeLock.lock();
+        try {
+            next = pendingWrite;
+            outcome = pendingOutcome;
+            pendingWrite = null;
+            pendingOutcome = null;
+        } finally {
+            writeLock.unlock();
+        }
 
-                Map<String, Map<String, Variant>> details = entry.getValue();
-                String uuid = details.get(primaryInterface).get("UUID").getValue().toString();
-                if (CONFIGURATION_UUID.equalsIgnoreCase(uuid)) {
-                    return true;
-                }
+        try {
+            writes.remote.increment();
+            writeValueRemote(next);
+            outcome.complete(null);
+        } catch (RuntimeException e) {
+            writes.abandoned.increment();
+            getLogger().debug("{}: Parked write failed: {}", dbusObjectPath, e.getMessage());
+            outcome.completeExceptionally(e);
+        } finally {
+            writeDone(writes);
+        }
+    }
+
+    private boolean awaitWrite(CompletableFuture<Void> outcome) throws BluezException {
+        try {
+            outcome.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BluezException("Interrupted while writing value of " + dbusObjectPath, e);
+        } catch (ExecutionException e) {
+            // rethrow failure of the parked write as is, so that NotReadyException is kept
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
             }
-            
-            return false;
-        } catch (DBusException e) {
-            getLogger().error("{}: Unable to read descriptor", dbusObjectPath); 
+            throw new BluezException("Unable to commit write for " + dbusObjectPath + ": " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Get ATT MTU of the device connection, bluez versions not exposing it get the default one.
+     */
+    public int getMtu() {
+        // call remote part
+        this.<UInt16>attemptCachedPropertyUpdate("MTU");
+        // local part
+        Object mtu = cache.<Object>get("MTU");
+        return (mtu instanceof Number) ? Math.max(ATT_DEFAULT_MTU, ((Number)mtu).intValue()) : ATT_DEFAULT_MTU;
+    }
+
+    private static Map<String, Variant> offsetOptions(int offset, String type) {
+        Map<String, Variant> options = new HashMap<String, Variant>();
+        options.put("offset", new Variant(new UInt16(offset)));
+        if (type != null) {
+            options.put("type", new Variant(type));
+        }
+        return options;
+    }
+
+    private byte[] readChunkRemote(int offset) throws BluezException, NotReadyException {
+        if (!allowRemoteCalls) {
+            getLogger().debug("{}: Not allowed to make remote calls", dbusObjectPath);
+            return null;
+        }
+
+        Map<String, Variant> options = (offset == 0) ? NO_OPTIONS : offsetOptions(offset, null);
+        try {
+            return this.<byte[]>callWithDispose("ReadValue",
+                () -> { return remoteInterface().ReadValue(options); },
+                () -> { allowRemoteCalls = false; context.disposeCharacteristic(dbusObjectPath, false, true); }
+            );
+        } catch (NotReadyException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            String message = e.getMessage();
+            if (offset > 0 && message != null && INVALID_OFFSET_PATTERN.matcher(message).matches()) {
+                // value ended right at the previous chunk
+                return null;
+            }
+            throw new BluezException("Unable to read value of " + dbusObjectPath + " at offset " + offset + ": " + message, e);
+        } catch (Exception e) {
+            throw new BluezException("Unable to read value of " + dbusObjectPath + " at offset " + offset + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read value longer than a single ATT PDU into sink, chunk by chunk using read offsets.
+     * Bluez reads the rest of the value per call, so values up to the spec limit take a single call.
+     * Reading stops once the value ends or sink is full.
+     * @return number of bytes read
+     */
+    public int readLong(ByteBuffer sink) throws BluezException, NotReadyException {
+        getLogger().debug("{}: Reading long value", dbusObjectPath);
+        // full read blob response, shorter chunk means the value ended
+        int blobSize = getMtu() - 1;
+
+        int offset = 0;
+        while (sink.hasRemaining() && offset <= MAX_OFFSET) {
+            byte[] chunk = readChunkRemote(offset);
+            if (chunk == null || chunk.length == 0) {
+                break;
+            }
+
+            int length = Math.min(chunk.length, sink.remaining());
+            sink.put(chunk, 0, length);
+            offset += length;
+            if (length < chunk.length || chunk.length < blobSize) {
+                break;
+            }
+        }
+        return offset;
+    }
+
+    private boolean writeChunkRemote(byte[] bytes, int offset) throws BluezException, NotReadyException {
+        if (!allowRemoteCalls) {
+            getLogger().debug("{}: Not allowed to make remote calls", dbusObjectPath);
             return false;
         }
+
+        Map<String, Variant> options = (offset == 0) ? NO_OPTIONS : offsetOptions(offset, "request");
+        try {
+            callWithDispose("WriteValue",
+                () -> { remoteInterface().WriteValue(bytes, options); },
+                () -> { allowRemoteCalls = false; context.disposeCharacteristic(dbusObjectPath, false, true); }
+            );
+            return true;
+        } catch (NotReadyException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new BluezException("Unable to commit write for " + dbusObjectPath + " at offset " + offset + ": " + e.getMessage(), e);
+        }
     }
 
+    /**
+     * Write value longer than a single ATT PDU from source. Values fitting a single write request
+     * are written at once, longer ones in chunks of whole prepare write payloads, each of which bluez
+     * queues as prepared writes back to back. Chunks are submitted without waiting for each other,
+     * the replies are collected afterwards. Every chunk is committed on its own, so the whole value
+     * is not written atomically.
+     * @return number of bytes written up to the first chunk failed
+     */
+    public int writeLong(ByteBuffer source) throws BluezException, NotReadyException {
+        getLogger().debug("{}: Writing long value", dbusObjectPath);
+        // value read last is stale, even if the write fails half way
+        invalidateValue();
+
+        int mtu = getMtu();
+        int total = source.remaining();
+        if (total <= mtu - 3) {
+            byte[] bytes = new byte[total];
+            source.get(bytes);
+            return writeChunkRemote(bytes, 0) ? total : 0;
+        }
+        if (total > MAX_OFFSET + 1) {
+            throw new BluezException("Value of " + total + " bytes exceeds offset range of " + dbusObjectPath);
+        }
+        if (!allowRemoteCalls) {
+            getLogger().debug("{}: Not allowed to make remote calls", dbusObjectPath);
+            return 0;
+        }
+
+        int payload = mtu - 5;
+        int chunkSize = Math.max(payload, (MAX_ATTRIBUTE_LENGTH / payload) * payload);
+        int chunks = (total + chunkSize - 1) / chunkSize;
+        int[] lengths = new int[chunks];
+        BluezEvents.Scope[] events = new BluezEvents.Scope[chunks];
+        DBusAsyncReply<?>[] replies = new DBusAsyncReply<?>[chunks];
+        RuntimeException[] failures = new RuntimeException[chunks];
+
+        // call remote part - submit all chunks, then collect the replies
+        GattCharacteristic1 remote = remoteInterface();
+        BluezConnections.Lane lane = lane();
+        lane.lock.lock();
+        try {
+            int offset = 0;
+            for (int i = 0; i < chunks; ++i) {
+                byte[] bytes = new byte[Math.min(chunkSize, source.remaining())];
+                source.get(bytes);
+                lengths[i] = bytes.length;
+                events[i] = BluezEvents.remoteCall(dbusObjectPath, "WriteValue");
+                try {
+                    Map<String, Variant> options = (offset == 0) ? NO_OPTIONS : offsetOptions(offset, "request");
+                    replies[i] = lane.connection.callMethodAsync(remote, "WriteValue", bytes, options);
+                } catch (RuntimeException e) {
+                    failures[i] = e;
+                    break;
+                }
+                offset += bytes.length;
+            }
+        } finally {
+            lane.lock.unlock();
+        }
+
+        // every reply is collected, so that none of them stays pending
+        for (int i = 0; i < chunks; ++i) {
+            if (replies[i] == null) {
+                continue;
+            }
+            try {
+                replies[i].getReply();
+                events[i].finish(BluezEvents.OUTCOME_OK);
+            } catch (RuntimeException e) {
+                failures[i] = e;
+            }
+        }
+
+        // chunks after a failed one may have been written, but the value is written only up to the failure
+        int written = 0;
+        for (int i = 0; i < chunks && (replies[i] != null || failures[i] != null); ++i) {
+            if (failures[i] != null) {
+                failedChunk(failures[i], events[i], written);
+                break;
+            }
+            written += lengths[i];
+        }
+        return written;
+    }
+
+    /**
+     * Classify failure of a pipelined chunk the way callWithDispose does, returning only if the characteristic was disposed.
+     */
+    private void failedChunk(RuntimeException cause, BluezEvents.Scope event, int offset) throws BluezException, NotReadyException {
+        String outcome = BluezEvents.OUTCOME_ERROR;
+        try {
+            if (cause instanceof NotConnected) {
+                outcome = BluezEvents.OUTCOME_NOT_READY;
+                throw new NotReadyException("Device is not connected " + dbusObjectPath);
+            }
+            outcome = handleCallFailure(cause,
+                () -> { allowRemoteCalls = false; context.disposeCharacteristic(dbusObjectPath, false, true); }
+            );
+        } catch (NotReadyException e) {
+            outcome = BluezEvents.OUTCOME_NOT_READY;
+            throw e;
+        } catch (RuntimeException e) {
+            throw new BluezException("Unable to commit write for " + dbusObjectPath + " at offset " + offset + ": " + e.getMessage(), e);
+        } finally {
+            event.finish(outcome);
+        }
+    }
+
+    @Override
+    public boolean isNotificationConfigurable() {
+        // local only, descriptors are registered along with their characteristics
+        return context.getDescriptor(dbusObjectPath, CONFIGURATION_UUID) != null;
+    }
+
+    /**
+     * Get descriptors of this characteristic known to the context.
+     */
+    public Collection<BluezDescriptor> getDescriptors() {
+        return context.getDescriptors(dbusObjectPath);
+    }
 
     private void getUUIDRemote() {
         // remote - update cache
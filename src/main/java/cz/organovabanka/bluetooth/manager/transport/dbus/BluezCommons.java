@@ -84,8 +84,12 @@ public class BluezCommons {
         return Pattern.compile("^" + servicePath + "/char[0-9a-fA-F]{4}$");
     }
 
+    static final Pattern makeDescriptorPathPattern(String characteristicPath) {
+        return Pattern.compile("^" + characteristicPath + "/desc[0-9a-fA-F]{4}$");
+    }
+
     static final String parsePath(String objectPath, Class t) {
-        Class[] keys = { BluezAdapter.class, BluezDevice.class, BluezService.class, BluezCharacteristic.class, null };
+        Class[] keys = { BluezAdapter.class, BluezDevice.class, BluezService.class, BluezCharacteristic.class, BluezDescriptor.class };
         String[] patterns = {
             "^" + BLUEZ_DBUS_OBJECT + "/hci[0-9]+",
             "^" + BLUEZ_DBUS_OBJECT + "/hci[0-9]+/dev(_[0-9a-fA-F]{2}){6}",
@@ -140,12 +144,7 @@ public class BluezCommons {
             throw new BluezException("Invalid protocol " + url.getProtocol() + " for this transport provider");
         }
 
-        ObjectManager objectManager = null;
-        try {
-            objectManager = context.getDbusConnection().getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
-        } catch (DBusException e) {
-            throw new BluezException("Unable to access dbus base services on bus " + BluezCommons.BLUEZ_DBUS_BUSNAME, e);
-        }
+        ObjectManager objectManager = context.getObjectManager();
 
         Map<Path, Map<String, Map<String, Variant>>> allObjects = objectManager.GetManagedObjects();
         if (allObjects == null) {
@@ -0,0 +1,199 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dbus connection topology of the context. Signal handlers, match rules and daemon watching use
+ * the signal connection, method calls go through call lanes. Each object is served by a single lane
+ * picked by hash of its device path, so that calls of a device keep their order and bluez sees
+ * a single sender for per-client sessions (discovery, notifications). Every lane has its own lock
+ * and proxies, heavy gatt traffic of a device stalls neither signal delivery nor other lanes.
+ * With no call connections configured, the only lane shares the signal connection and its lock.
+ * @author Lukas Rucka
+ */
+final class BluezConnections {
+    private static final Logger logger = LoggerFactory.getLogger(BluezConnections.class);
+
+    private static final String DEVICE_SEGMENT = "/dev_";
+
+    /**
+     * A connection for method calls along with the lock guarding it and proxies created on it.
+     */
+    static final class Lane {
+        final DBusConnection connection;
+        final ReentrantLock lock;
+        private final Map<Class<?>, RemoteObjectFactory<?>> remoteObjects = new ConcurrentHashMap<Class<?>, RemoteObjectFactory<?>>();
+
+        Lane(DBusConnection connection, ReentrantLock lock) {
+            this.connection = connection;
+            this.lock = lock;
+        }
+
+        <I extends DBusInterface> RemoteObjectFactory<I> getRemoteObjectFactory(Class<I> type) {
+            return (RemoteObjectFactory<I>)remoteObjects.computeIfAbsent(type, (key) -> {
+                return new RemoteObjectFactory<I>(this, type);
+            });
+        }
+
+        void release(String path) {
+            for (RemoteObjectFactory<?> factory : remoteObjects.values()) {
+                factory.release(path);
+            }
+        }
+
+        void clear() {
+            remoteObjects.clear();
+        }
+    }
+
+    private final DBusConnectionProvider provider;
+    private final DBusConnection signalConnection;
+    private final ReentrantLock signalLock;
+    // guards replacing the lanes, which opens and closes connections
+    private final ReentrantLock topologyLock = new ReentrantLock();
+    private volatile Lane[] lanes;
+
+    BluezConnections(DBusConnectionProvider provider, ReentrantLock signalLock) throws BluezException {
+        this.provider = provider;
+        try {
+            this.signalConnection = provider.openSignalConnection();
+        } catch (DBusException e) {
+            throw new BluezException("Unable to access dbus", e);
+        }
+        this.signalLock = signalLock;
+        this.lanes = new Lane[] { new Lane(signalConnection, signalLock) };
+    }
+
+    DBusConnection getSignalConnection() {
+        return signalConnection;
+    }
+
+    /**
+     * Get number of dedicated call connections, zero if calls share the signal connection.
+     */
+    int getCallConnections() {
+        Lane[] current = lanes;
+        return (current.length == 1 && current[0].connection == signalConnection) ? 0 : current.length;
+    }
+
+    /**
+     * Replace call lanes by given number of dedicated connections, zero to share the signal connection.
+     * Replaced connections are closed, which fails calls in flight and ends sessions started through them,
+     * so the topology is to be set up before use.
+     */
+    void setCallConnections(int count) throws BluezException {
+        topologyLock.lock();
+        try {
+            int target = Math.max(0, count);
+            if (target == getCallConnections()) {
+                return;
+            }
+
+            Lane[] replacement;
+            if (target == 0) {
+                replacement = new Lane[] { new Lane(signalConnection, signalLock) };
+            } else {
+                replacement = new Lane[target];
+                try {
+                    for (int i = 0; i < target; ++i) {
+                        replacement[i] = new Lane(openConnection(i), new ReentrantLock());
+                    }
+                } catch (BluezException e) {
+                    close(replacement);
+                    throw e;
+                }
+            }
+
+            Lane[] replaced = lanes;
+            lanes = replacement;
+            close(replaced);
+            logger.info("Using {} dbus connections for method calls", target);
+        } finally {
+            topologyLock.unlock();
+        }
+    }
+
+    /**
+     * Close dedicated call connections, falling back to the signal connection.
+     */
+    void dispose() {
+        setCallConnections(0);
+        lanes[0].clear();
+    }
+
+    private DBusConnection openConnection(int index) throws BluezException {
+        try {
+            return provider.openCallConnection(index);
+        } catch (DBusException e) {
+            throw new BluezException("Unable to open dbus connection for call lane " + index + " through " + provider.getName(), e);
+        }
+    }
+
+    private void close(Lane[] closed) {
+        for (Lane lane : closed) {
+            if (lane == null) {
+                continue;
+            }
+
+            lane.clear();
+            if (lane.connection != signalConnection) {
+                lane.connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Get the lane serving given object.
+     */
+    Lane lane(String path) {
+        Lane[] current = lanes;
+        if (current.length == 1) {
+            return current[0];
+        }
+        return current[(routingKey(path).hashCode() & Integer.MAX_VALUE) % current.length];
+    }
+
+    void release(String path) {
+        lane(path).release(path);
+    }
+
+    // objects of a device share the lane of the device
+    private static String routingKey(String path) {
+        int device = path.indexOf(DEVICE_SEGMENT);
+        if (device < 0) {
+            return path;
+        }
+
+        int end = path.indexOf('/', device + DEVICE_SEGMENT.length());
+        return (end < 0) ? path : path.substring(0, end);
+    }
+}
@@ -40,13 +40,17 @@ import org.sputnikdev.bluetooth.URL;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -58,10 +62,23 @@ import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Properties;
  * @author Lukas Rucka
  */
 public class BluezContext {
+    /** @deprecated not taken by the transport anymore, dbus access is guarded by a lock of its own */
+    @Deprecated
     public final String buslock = "I don't really trust internal dbus-java locking, as I observed issues during development";
+    // I don't really trust internal dbus-java locking, as I observed issues during development.
+    // Locks are not monitors, so that virtual threads blocked in dbus calls do not pin their carrier.
+    final ReentrantLock dbusLock = new ReentrantLock();
+    // guards creation and disposal of handles, which may call bluez
+    private final ReentrantLock registryLock = new ReentrantLock();
     private static final Logger logger = LoggerFactory.getLogger(BluezContext.class);
 
-    private final DBusConnection busConnection;
+    private final BluezConnections connections;
+
+    // rule added by dbus-java for NameOwnerChanged handlers, it carries no sender
+    private static final String OWNER_CHANGED = "type='signal',interface='" + BluezCommons.DBUS_DBUS_BUSNAME 
+        + "',member='NameOwnerChanged'";
+    private static final String BLUEZ_OWNER_CHANGED = OWNER_CHANGED + ",sender='" + BluezCommons.DBUS_DBUS_BUSNAME
+        + "',arg0='" + BluezCommons.BLUEZ_DBUS_BUSNAME + "'";
     private String bluezProcessOwner;
 
     private DBusSigHandler<ObjectManager.InterfacesAdded> interfacesAddedHandler = null;
@@ -71,14 +88,67 @@ public class BluezContext {
     // keep handlers for distinct object paths
     private Map<String, BluezAdapter> adapters = new ConcurrentHashMap();
     private Map<String, BluezDevice> devices = new ConcurrentHashMap();
+    private Map<String, BluezService> services = new ConcurrentHashMap();
     private Map<String, BluezCharacteristic> characteristics = new ConcurrentHashMap();
+    private Map<String, BluezDescriptor> descriptors = new ConcurrentHashMap();
+    // descriptors by characteristic path and descriptor path
+    private final Map<String, Map<String, BluezDescriptor>> descriptorIndex = new ConcurrentHashMap<String, Map<String, BluezDescriptor>>();
+    // first descriptor of each known uuid by characteristic path, for single instance descriptors (e.g. CCCD)
+    private final Map<String, Map<String, BluezDescriptor>> descriptorUuidIndex = new ConcurrentHashMap<String, Map<String, BluezDescriptor>>();
+
+    // device registry eviction policy, zero disables the respective limit
+    private static final int EVICTED_PATHS_LIMIT = 16384;
+    private volatile int deviceLimit = 0;
+    private volatile long deviceIdleTimeout = 0;
+    // paths of evicted handles to recreate on their next signal, least recently seen ones beyond the limit are forgotten
+    private final Map<String, Boolean> evictedDevices = Collections.synchronizedMap(
+        new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > EVICTED_PATHS_LIMIT;
+            }
+        });
+
+    // device admission, denied paths are never evaluated again, rejected paths map to the properties
+    // the filter reads, least recently seen ones beyond the limit are forgotten
+    private volatile AdmissionFilter admissionFilter = AdmissionFilter.ADMIT_ALL;
+    private final Set<String> deniedDevices = ConcurrentHashMap.<String>newKeySet();
+    private final Map<String, Map<String, Variant>> rejectedDevices = Collections.synchronizedMap(
+        new LinkedHashMap<String, Map<String, Variant>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Variant>> eldest) {
+                return size() > EVICTED_PATHS_LIMIT;
+            }
+        });
+
+    // narrow PropertiesChanged match rules, replacing the broad one of dbus-java
+    private final SignalSubscriptions subscriptions = new SignalSubscriptions(this);
+    private volatile boolean signalNarrowing = true;
+
+    // milliseconds to coalesce property changes of an object for, zero for immediate dispatch
+    private volatile long signalCoalescingWindow = 0;
+
+    // milliseconds to wait for adapters to report a new power state, and to let them settle afterwards
+    private volatile long powerTimeout = 5000;
+    private volatile long powerSettleTime = 0;
+
+    // per object signal rates, for finding out which devices generate the load
+    private final SignalAccounting signalAccounting = new SignalAccounting();
+    private volatile boolean signalAccountingEnabled = true;
+
+    // per object signal rate budget
+    private final LoadShedding loadShedding = new LoadShedding();
+
+    // characteristic value read policy and counters
+    private final ValueReads valueReads = new ValueReads();
+    private final ValueWrites valueWrites = new ValueWrites();
 
     public BluezContext() throws BluezException {
-        try {
-            busConnection = DBusConnection.getConnection(DBusConnection.SYSTEM);
-        } catch (DBusException e) {
-            throw new BluezException("Unable to access dbus", e);
-        }
+        this(SystemBusConnectionProvider.select());
+    }
+
+    public BluezContext(DBusConnectionProvider provider) throws BluezException {
+        connections = new BluezConnections(provider, dbusLock);
     }
 
     public void setupHandlers(
@@ -96,8 +166,10 @@ public class BluezContext {
             return;
         }
 
+        DBusConnection busConnection = connections.getSignalConnection();
         try {
-            synchronized (buslock) {
+            dbusLock.lock();
+            try {
                 DBus dbus = busConnection.getRemoteObject(BluezCommons.DBUS_DBUS_BUSNAME, BluezCommons.DBUS_DBUS_OBJECT, DBus.class);
                 String tmpBluezProcessOwner = dbus.GetNameOwner(BluezCommons.BLUEZ_DBUS_BUSNAME);
                 
@@ -109,8 +181,13 @@ public class BluezContext {
                 }
                 if (propertiesChangedHandler != null) {
                     busConnection.addSigHandler(Properties.PropertiesChanged.class, tmpBluezProcessOwner, propertiesChangedHandler);
+                    if (signalNarrowing) {
+                        subscriptions.install(dbus, tmpBluezProcessOwner);
+                    }
                 }
                 bluezProcessOwner = tmpBluezProcessOwner;
+            } finally {
+                dbusLock.unlock();
             }
         } catch (DBusException e) {
             throw new BluezException("Unable to access dbus to establish base bluetooth objects", e);
@@ -122,31 +199,184 @@ public class BluezContext {
             return;
         }
 
+        DBusConnection busConnection = connections.getSignalConnection();
         try {
-            synchronized (buslock) {
+            dbusLock.lock();
+            try {
                 if (interfacesAddedHandler != null) {
                     busConnection.removeSigHandler(ObjectManager.InterfacesAdded.class, bluezProcessOwner, interfacesAddedHandler);
                 }
                 if (propertiesChangedHandler != null) {
+                    subscriptions.uninstall();
                     busConnection.removeSigHandler(Properties.PropertiesChanged.class, bluezProcessOwner, propertiesChangedHandler);
                 }
                 if (interfacesRemovedHandler != null) {
                     busConnection.removeSigHandler(ObjectManager.InterfacesRemoved.class, bluezProcessOwner, interfacesRemovedHandler);
                 }
                 bluezProcessOwner = null;
+            } finally {
+                dbusLock.unlock();
             }
         } catch (DBusException e) {
             logger.error("Unable to disable dbus signals, reason: {}", e.getMessage());
         }
     }
 
+    /**
+     * Watch the bluez bus name changing owners, i.e. the daemon starting, stopping or restarting.
+     * dbus-java subscribes to owner changes of all bus names, that rule is replaced by one for bluez only.
+     * @return whether the watch is established
+     */
+    boolean watchBluezOwner(DBusSigHandler<DBus.NameOwnerChanged> ownerHandler) {
+        DBusConnection busConnection = connections.getSignalConnection();
+        dbusLock.lock();
+        try {
+            busConnection.addSigHandler(DBus.NameOwnerChanged.class, ownerHandler);
+            DBus dbus = busConnection.getRemoteObject(BluezCommons.DBUS_DBUS_BUSNAME, BluezCommons.DBUS_DBUS_OBJECT, DBus.class);
+            try {
+                dbus.AddMatch(BLUEZ_OWNER_CHANGED);
+                dbus.RemoveMatch(OWNER_CHANGED);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to narrow bus name owner subscription, keeping the broad one: {}", e.getMessage());
+            }
+            return true;
+        } catch (DBusException e) {
+            logger.error("Unable to watch bluetooth daemon on the bus, reason: {}", e.getMessage());
+            return false;
+        } finally {
+            dbusLock.unlock();
+        }
+    }
+
     public void rebind() {
         unbind();
         bind();
     }
 
+    /**
+     * Enable or disable narrow signal match rules, takes effect on next bind.
+     */
+    public void setSignalNarrowing(boolean signalNarrowing) {
+        this.signalNarrowing = signalNarrowing;
+    }
+
+    public boolean isSignalNarrowing() {
+        return signalNarrowing;
+    }
+
+    public void setSignalCoalescingWindow(long signalCoalescingWindow) {
+        this.signalCoalescingWindow = Math.max(0, signalCoalescingWindow);
+    }
+
+    public long getSignalCoalescingWindow() {
+        return signalCoalescingWindow;
+    }
+
+    /**
+     * Set time to wait for adapters to report their power state, there is no waiting without a limit.
+     */
+    public void setPowerTimeout(long powerTimeout) {
+        if (powerTimeout <= 0) {
+            logger.error("Power timeout has to be positive, keeping {} ms instead of {}", this.powerTimeout, powerTimeout);
+            return;
+        }
+        this.powerTimeout = powerTimeout;
+    }
+
+    public long getPowerTimeout() {
+        return powerTimeout;
+    }
+
+    public void setPowerSettleTime(long powerSettleTime) {
+        this.powerSettleTime = Math.max(0, powerSettleTime);
+    }
+
+    public long getPowerSettleTime() {
+        return powerSettleTime;
+    }
+
+    public void setSignalAccounting(boolean signalAccountingEnabled) {
+        this.signalAccountingEnabled = signalAccountingEnabled;
+        if (!signalAccountingEnabled) {
+            signalAccounting.clear();
+        }
+    }
+
+    public boolean isSignalAccounting() {
+        return signalAccountingEnabled;
+    }
+
+    void recordSignal(String path, Map<String, Variant> changed, Collection<String> removed) {
+        if (signalAccountingEnabled) {
+            signalAccounting.record(path, changed, removed);
+        }
+    }
+
+    /**
+     * Get objects with the highest PropertiesChanged signal rate.
+     * @param count maximum number of objects reported
+     * @param window seconds to compute the rate over, at most one minute
+     */
+    public List<SignalRate> getTopTalkers(int count, int window) {
+        return signalAccounting.top(count, window);
+    }
+
+    LoadShedding getLoadShedding() {
+        return loadShedding;
+    }
+
+    ValueReads getValueReads() {
+        return valueReads;
+    }
+
+    ValueWrites getValueWrites() {
+        return valueWrites;
+    }
+
+    void pruneSignalAccounting() {
+        signalAccounting.prune();
+    }
+
+    void addSignalMatch(String match) {
+        subscriptions.add(match);
+    }
+
+    void removeSignalMatch(String match) {
+        subscriptions.remove(match);
+    }
+
+    /**
+     * Get the signal connection, which serves method calls too unless call connections are configured.
+     */
     public DBusConnection getDbusConnection() {
-        return busConnection;
+        return connections.getSignalConnection();
+    }
+
+    BluezConnections.Lane getLane(String path) {
+        return connections.lane(path);
+    }
+
+    /**
+     * Set number of dedicated dbus connections for method calls, zero to make calls on the signal connection.
+     */
+    public void setCallConnections(int count) throws BluezException {
+        connections.setCallConnections(count);
+    }
+
+    public int getCallConnections() {
+        return connections.getCallConnections();
+    }
+
+    <I extends DBusInterface> I getRemoteObject(Class<I> type, String path) throws BluezException {
+        return connections.lane(path).getRemoteObjectFactory(type).get(path);
+    }
+
+    ObjectManager getObjectManager() throws BluezException {
+        return getRemoteObject(ObjectManager.class, "/");
+    }
+
+    void releaseRemoteObjects(String path) {
+        connections.release(path);
     }
 
     public BluezAdapter getManagedAdapter(String path) throws BluezException {
@@ -164,13 +394,30 @@ public class BluezContext {
              return null;
         }
 
-        synchronized (this) {
+        return getManagedAdapter(path, Collections.<String, Variant>emptyMap());
+    }
+
+    /**
+     * Get adapter handle, creating it from properties delivered by bluez if not managed yet.
+     * Properties are used only for new handles, updating cache of existing ones is up to caller.
+     */
+    public BluezAdapter getManagedAdapter(String path, Map<String, Variant> properties) throws BluezException {
+        BluezAdapter adapter = adapters.get(path);
+        if (adapter != null) {
+            return adapter;
+        }
+
+        registryLock.lock();
+        try {
             if (adapters.containsKey(path)) {
                 return adapters.get(path);
             }
 
-            adapters.putIfAbsent(path, new BluezAdapter(this, path));
+            adapters.putIfAbsent(path, new BluezAdapter(this, path, nonNull(properties)));
+            subscriptions.add(SignalSubscriptions.devicesOf(path));
             return adapters.get(path);
+        } finally {
+            registryLock.unlock();
         }
     }
 
@@ -189,28 +436,34 @@ public class BluezContext {
         return adapters.values();
     }
 
-    public synchronized void disposeAdapter(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
-        String pathExpr = path + "/";
+    public void disposeAdapter(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
+        registryLock.lock();
+        try {
+            String pathExpr = path + "/";
      
-        Set<String> subdevices = devices.keySet().stream()
-            .filter((devicePath) -> {
-                return devicePath.startsWith(pathExpr);
-            })
-            .collect(Collectors.toSet());
+            Set<String> subdevices = devices.keySet().stream()
+                .filter((devicePath) -> {
+                    return devicePath.startsWith(pathExpr);
+                })
+                .collect(Collectors.toSet());
 
-        if (recurse) {
-            for (String devicePath : subdevices) {
-                disposeDevice(devicePath, doRemoteCalls, recurse);
+            if (recurse) {
+                for (String devicePath : subdevices) {
+                    disposeDevice(devicePath, doRemoteCalls, recurse);
+                }
             }
-        }
         
-        BluezAdapter adapter = adapters.get(path);
-        if (adapter == null) {
-            return;
-        }
+            BluezAdapter adapter = adapters.get(path);
+            if (adapter == null) {
+                return;
+            }
 
-        BluezAdapter.dispose(adapter, doRemoteCalls, recurse);
-        adapters.remove(path);
+            BluezAdapter.dispose(adapter, doRemoteCalls, recurse);
+            adapters.remove(path);
+            subscriptions.remove(SignalSubscriptions.devicesOf(path));
+        } finally {
+            registryLock.unlock();
+        }
     }
 
     public BluezDevice getManagedDevice(String path) throws BluezException {
@@ -229,14 +482,36 @@ public class BluezContext {
             return null;
         }
 
-        synchronized (this) {
+        return getManagedDevice(path, Collections.<String, Variant>emptyMap());
+    }
+
+    /**
+     * Get device handle, creating it from properties delivered by bluez if not managed yet.
+     * Properties are used only for new handles, updating cache of existing ones is up to caller.
+     */
+    public BluezDevice getManagedDevice(String path, Map<String, Variant> properties) throws BluezException {
+        BluezDevice device = devices.get(path);
+        if (device != null) {
+            return device;
+        }
+
+        registryLock.lock();
+        try {
             if (devices.containsKey(path)) {
                 return devices.get(path);
             }
 
             logger.trace("{}: created handle for bluetooth device", path);
-            devices.putIfAbsent(path, new BluezDevice(this, path));
+            devices.putIfAbsent(path, new BluezDevice(this, path, nonNull(properties)));
+            evictedDevices.remove(path);
+            rejectedDevices.remove(path);
+
+            if (deviceLimit > 0 && devices.size() > deviceLimit) {
+                evictDevices();
+            }
             return devices.get(path);
+        } finally {
+            registryLock.unlock();
         }
     }
 
@@ -255,28 +530,241 @@ public class BluezContext {
         return devices.values();
     }
 
-    public synchronized void disposeDevice(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
-        String pathExpr = path + "/";
+    public void disposeDevice(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
+        registryLock.lock();
+        try {
+            String pathExpr = path + "/";
      
-        Set<String> subcharacteristics = characteristics.keySet().stream()
-            .filter((characteristicPath) -> {
-                return characteristicPath.startsWith(pathExpr);
-            })
-            .collect(Collectors.toSet());
+            Set<String> subservices = services.keySet().stream()
+                .filter((servicePath) -> {
+                    return servicePath.startsWith(pathExpr);
+                })
+                .collect(Collectors.toSet());
 
-        if (recurse) {
-            for (String characteristicPath : subcharacteristics) {
-                disposeCharacteristic(characteristicPath, doRemoteCalls, recurse);
+            if (recurse) {
+                for (String servicePath : subservices) {
+                    disposeService(servicePath, doRemoteCalls, recurse);
+                }
             }
-        }
         
-        BluezDevice device = (devices.get(path));
-        if (device == null) {
-            return;
+            BluezDevice device = (devices.get(path));
+            if (device == null) {
+                return;
+            }
+
+            BluezDevice.dispose(device, doRemoteCalls, recurse);
+            devices.remove(path);
+            evictedDevices.remove(path);
+        } finally {
+            registryLock.unlock();
         }
+    }
+
+    public void setDeviceLimit(int deviceLimit) {
+        this.deviceLimit = Math.max(0, deviceLimit);
+    }
+
+    public int getDeviceLimit() {
+        return deviceLimit;
+    }
 
-        BluezDevice.dispose(device, doRemoteCalls, recurse);
-        devices.remove(path);
+    public void setDeviceIdleTimeout(long deviceIdleTimeout) {
+        this.deviceIdleTimeout = Math.max(0, deviceIdleTimeout);
+    }
+
+    public long getDeviceIdleTimeout() {
+        return deviceIdleTimeout;
+    }
+
+    public boolean isEvicted(String path) {
+        // lookup refreshes the path, devices still signalling are forgotten last
+        return evictedDevices.get(path) != null;
+    }
+
+    /**
+     * Drops device handles idle for longer than device idle timeout and, if there are still
+     * more handles than device limit allows, the least recently seen ones.
+     * Paired, trusted and connected devices are never evicted. Evicted handles are local only,
+     * the device itself is kept in bluez and its handle gets recreated on its next signal.
+     * @return number of evicted handles
+     */
+    public int evictDevices() {
+        registryLock.lock();
+        try {
+            if (deviceLimit <= 0 && deviceIdleTimeout <= 0) {
+                return 0;
+            }
+
+            long now = System.currentTimeMillis();
+            // shrink below the limit a bit, so that eviction does not run on every new device
+            int excess = (deviceLimit > 0 && devices.size() > deviceLimit)
+                ? devices.size() - (deviceLimit - deviceLimit / 10)
+                : 0;
+
+            List<BluezDevice> candidates = devices.values().stream()
+                .filter((device) -> { return !device.isRetained(); })
+                .sorted(Comparator.comparingLong(BluezDevice::getLastSeen))
+                .collect(Collectors.toList());
+
+            int evicted = 0;
+            for (BluezDevice device : candidates) {
+                boolean idle = deviceIdleTimeout > 0 && now - device.getLastSeen() > deviceIdleTimeout;
+                if (!idle && evicted >= excess) {
+                    // candidates are ordered by last activity, the rest is more recent
+                    break;
+                }
+
+                String path = device.getPath();
+                logger.trace("{}: evicting handle of idle bluetooth device", path);
+                disposeDevice(path, false, true);
+                evictedDevices.put(path, Boolean.TRUE);
+                ++evicted;
+            }
+
+            if (evicted > 0) {
+                logger.debug("Evicted {} bluetooth device handles, {} remain managed", evicted, devices.size());
+            }
+            return evicted;
+        } finally {
+            registryLock.unlock();
+        }
+    }
+
+    void setAdmissionFilter(AdmissionFilter admissionFilter) {
+        this.admissionFilter = admissionFilter;
+        // criteria changed, let the devices be evaluated again
+        deniedDevices.clear();
+        rejectedDevices.clear();
+    }
+
+    /**
+     * Evaluate admission filter for a device not managed yet, remembering rejected ones.
+     * @param properties Device1 properties as delivered by bluez
+     * @return whether the device may get a managed handle
+     */
+    public boolean admitDevice(String path, Map<String, Variant> properties) {
+        if (devices.containsKey(path)) {
+            return true;
+        }
+
+        AdmissionFilter filter = admissionFilter;
+        AdmissionFilter.Verdict verdict = filter.evaluate(nonNull(properties));
+        if (verdict == AdmissionFilter.Verdict.ADMITTED) {
+            rejectedDevices.remove(path);
+            return true;
+        }
+
+        if (verdict == AdmissionFilter.Verdict.DENIED) {
+            deniedDevices.add(path);
+        } else {
+            rejectedDevices.put(path, filter.retain(nonNull(properties)));
+        }
+        logger.trace("{}: bluetooth device not admitted, {}", path, verdict);
+        return false;
+    }
+
+    public boolean isRejected(String path) {
+        return deniedDevices.contains(path) || rejectedDevices.containsKey(path);
+    }
+
+    /**
+     * Evaluate admission filter again for a rejected device upon change of Device1 properties the filter reads,
+     * as advertised data and signal strength arrive over time. Denied devices are dropped right away.
+     * @return whether the device got admitted and managed
+     */
+    boolean readmitDevice(String path, Map<String, Variant> changed, Collection<String> removed) {
+        if (deniedDevices.contains(path)) {
+            return false;
+        }
+
+        Map<String, Variant> known;
+        synchronized (rejectedDevices) {
+            known = rejectedDevices.get(path);
+            if (known == null) {
+                return true;
+            }
+
+            AdmissionFilter filter = admissionFilter;
+            if (!filter.merge(known, changed, removed) || filter.evaluate(known) != AdmissionFilter.Verdict.ADMITTED) {
+                return false;
+            }
+            rejectedDevices.remove(path);
+        }
+
+        logger.trace("{}: bluetooth device admitted upon change of its properties", path);
+        getManagedDevice(path, known);
+        return true;
+    }
+
+    void forgetRejected(String path) {
+        deniedDevices.remove(path);
+        rejectedDevices.remove(path);
+    }
+
+    public BluezService getManagedService(String path, boolean create) throws BluezException {
+        BluezService service = services.get(path);
+        if (service != null) {
+            return service;
+        }
+
+        if (!create) {
+            return null;
+        }
+
+        return getManagedService(path, Collections.<String, Variant>emptyMap());
+    }
+
+    /**
+     * Get service handle, creating it from properties delivered by bluez if not managed yet.
+     * Properties are used only for new handles, updating cache of existing ones is up to caller.
+     */
+    public BluezService getManagedService(String path, Map<String, Variant> properties) throws BluezException {
+        BluezService service = services.get(path);
+        if (service != null) {
+            return service;
+        }
+
+        registryLock.lock();
+        try {
+            if (services.containsKey(path)) {
+                return services.get(path);
+            }
+
+            logger.trace("{}: created handle for bluetooth service", path);
+            services.putIfAbsent(path, new BluezService(this, path, nonNull(properties)));
+            return services.get(path);
+        } finally {
+            registryLock.unlock();
+        }
+    }
+
+    public void disposeService(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
+        registryLock.lock();
+        try {
+            String pathExpr = path + "/";
+
+            Set<String> subcharacteristics = characteristics.keySet().stream()
+                .filter((characteristicPath) -> {
+                    return characteristicPath.startsWith(pathExpr);
+                })
+                .collect(Collectors.toSet());
+
+            if (recurse) {
+                for (String characteristicPath : subcharacteristics) {
+                    disposeCharacteristic(characteristicPath, doRemoteCalls, recurse);
+                }
+            }
+
+            BluezService service = services.get(path);
+            if (service == null) {
+                return;
+            }
+
+            BluezService.dispose(service, doRemoteCalls, recurse);
+            services.remove(path);
+        } finally {
+            registryLock.unlock();
+        }
     }
 
     public BluezCharacteristic getManagedCharacteristic(String path) throws BluezException {
@@ -294,14 +782,42 @@ public class BluezContext {
             return null;
         }
 
-        synchronized (this) {
+        return getManagedCharacteristic(path, Collections.<String, Variant>emptyMap());
+    }
+
+    /**
+     * Get characteristic handle, creating it from properties delivered by bluez if not managed yet.
+     * Properties are used only for new handles, updating cache of existing ones is up to caller.
+     */
+    public BluezCharacteristic getManagedCharacteristic(String path, Map<String, Variant> properties) throws BluezException {
+        BluezCharacteristic characteristic = characteristics.get(path);
+        if (characteristic != null) {
+            return characteristic;
+        }
+
+        registryLock.lock();
+        try {
             if (characteristics.containsKey(path)) {
                 return characteristics.get(path);
             }
 
             logger.trace("{}: created handle for bluetooth characteristic", path);
-            characteristics.putIfAbsent(path, new BluezCharacteristic(this, path));
+            characteristics.putIfAbsent(path, new BluezCharacteristic(this, path, nonNull(properties)));
             return characteristics.get(path);
+        } finally {
+            registryLock.unlock();
+        }
+    }
+
+    /**
+     * Drop cached values of all characteristics of given device.
+     */
+    void invalidateValues(String devicePath) {
+        String pathExpr = devicePath + "/";
+        for (Map.Entry<String, BluezCharacteristic> entry : characteristics.entrySet()) {
+            if (entry.getKey().startsWith(pathExpr)) {
+                entry.getValue().invalidateValue();
+            }
         }
     }
 
@@ -331,28 +847,218 @@ public class BluezContext {
         return null;
     }
 
-    public synchronized void disposeCharacteristic(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
-        BluezCharacteristic characteristic = characteristics.get(path);
-        if (characteristic == null) {
+    public void disposeCharacteristic(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
+        registryLock.lock();
+        try {
+            if (recurse) {
+                Map<String, BluezDescriptor> subdescriptors = descriptorIndex.get(path);
+                if (subdescriptors != null) {
+                    for (BluezDescriptor descriptor : subdescriptors.values().toArray(new BluezDescriptor[0])) {
+                        disposeDescriptor(descriptor.getPath(), doRemoteCalls, recurse);
+                    }
+                }
+            }
+
+            BluezCharacteristic characteristic = characteristics.get(path);
+            if (characteristic == null) {
+                return;
+            }
+
+            BluezCharacteristic.dispose(characteristic, doRemoteCalls, recurse);
+            characteristics.remove(path);
+        } finally {
+            registryLock.unlock();
+        }
+    }
+
+
+    public BluezDescriptor getManagedDescriptor(String path, boolean create) throws BluezException {
+        BluezDescriptor descriptor = descriptors.get(path);
+        if (descriptor != null) {
+            return descriptor;
+        }
+
+        if (!create) {
+            return null;
+        }
+
+        return getManagedDescriptor(path, Collections.<String, Variant>emptyMap());
+    }
+
+    /**
+     * Get descriptor handle, creating it from properties delivered by bluez if not managed yet.
+     * New descriptors are indexed under their characteristic by path, and by uuid if known.
+     */
+    public BluezDescriptor getManagedDescriptor(String path, Map<String, Variant> properties) throws BluezException {
+        BluezDescriptor descriptor = descriptors.get(path);
+        if (descriptor != null) {
+            return descriptor;
+        }
+
+        registryLock.lock();
+        try {
+            if (descriptors.containsKey(path)) {
+                return descriptors.get(path);
+            }
+
+            logger.trace("{}: created handle for bluetooth descriptor", path);
+            descriptor = new BluezDescriptor(this, path, nonNull(properties));
+            descriptors.put(path, descriptor);
+            descriptorIndex.computeIfAbsent(descriptor.getCharacteristicPath(), (key) -> {
+                return new ConcurrentHashMap<String, BluezDescriptor>();
+            }).put(path, descriptor);
+            indexUuid(descriptor);
+            return descriptor;
+        } finally {
+            registryLock.unlock();
+        }
+    }
+
+    /**
+     * Look up descriptor of given characteristic by its uuid.
+     * @return the descriptor or null, if the characteristic has no such descriptor managed
+     */
+    public BluezDescriptor getDescriptor(String characteristicPath, String uuid) {
+        Map<String, BluezDescriptor> indexed = descriptorUuidIndex.get(characteristicPath);
+        return (indexed == null) ? null : indexed.get(uuid.toLowerCase());
+    }
+
+    // descriptors of unknown uuid are not indexed, the first one of a uuid wins
+    private void indexUuid(BluezDescriptor descriptor) {
+        String uuid = descriptor.getKnownUUID();
+        if (uuid == null) {
             return;
         }
+        descriptorUuidIndex.computeIfAbsent(descriptor.getCharacteristicPath(), (key) -> {
+            return new ConcurrentHashMap<String, BluezDescriptor>();
+        }).putIfAbsent(uuid.toLowerCase(), descriptor);
+    }
 
-        BluezCharacteristic.dispose(characteristic, doRemoteCalls, recurse);
-        characteristics.remove(path);
+    public Collection<BluezDescriptor> getDescriptors(String characteristicPath) {
+        Map<String, BluezDescriptor> indexed = descriptorIndex.get(characteristicPath);
+        return (indexed == null) ? Collections.<BluezDescriptor>emptyList() : indexed.values();
     }
 
+    public void disposeDescriptor(String path, boolean doRemoteCalls, boolean recurse) throws BluezException {
+        registryLock.lock();
+        try {
+            BluezDescriptor descriptor = descriptors.get(path);
+            if (descriptor == null) {
+                return;
+            }
 
-    public synchronized void dispose() {
-        for (BluezDevice device : devices.values()) {
-            BluezDevice.dispose(device, true, true);
+            BluezDescriptor.dispose(descriptor, doRemoteCalls, recurse);
+            descriptors.remove(path);
+
+            String characteristicPath = descriptor.getCharacteristicPath();
+            Map<String, BluezDescriptor> indexed = descriptorIndex.get(characteristicPath);
+            if (indexed != null) {
+                indexed.remove(path);
+                if (indexed.isEmpty()) {
+                    descriptorIndex.remove(characteristicPath);
+                }
+            }
+
+            Map<String, BluezDescriptor> byUuid = descriptorUuidIndex.get(characteristicPath);
+            String uuid = descriptor.getKnownUUID();
+            if (byUuid != null && uuid != null && byUuid.remove(uuid.toLowerCase(), descriptor)) {
+                // another descriptor of the same uuid takes over
+                if (indexed != null) {
+                    for (BluezDescriptor sibling : indexed.values()) {
+                        indexUuid(sibling);
+                    }
+                }
+                if (byUuid.isEmpty()) {
+                    descriptorUuidIndex.remove(characteristicPath);
+                }
+            }
+        } finally {
+            registryLock.unlock();
         }
-        devices.clear();
+    }
 
-        for (BluezAdapter adapter : adapters.values()) {
-            BluezAdapter.dispose(adapter, true, true);
+    private static Map<String, Variant> nonNull(Map<String, Variant> properties) {
+        return (properties == null) ? Collections.<String, Variant>emptyMap() : properties;
+    }
+
+    /**
+     * Dispose handles of objects not exported by bluez anymore, children first, without remote calls.
+     * @param present paths of objects exported by bluez
+     * @param eligible paths allowed to be disposed
+     * @return number of handles disposed
+     */
+    public int disposeAbsent(Set<String> present, Predicate<String> eligible) {
+        registryLock.lock();
+        try {
+            Predicate<String> absent = (path) -> { return !present.contains(path) && eligible.test(path); };
+            int count = 0;
+
+            for (String path : descriptors.keySet().stream().filter(absent).collect(Collectors.toList())) {
+                disposeDescriptor(path, false, true);
+                ++count;
+            }
+            for (String path : characteristics.keySet().stream().filter(absent).collect(Collectors.toList())) {
+                disposeCharacteristic(path, false, true);
+                ++count;
+            }
+            for (String path : services.keySet().stream().filter(absent).collect(Collectors.toList())) {
+                disposeService(path, false, true);
+                ++count;
+            }
+            for (String path : devices.keySet().stream().filter(absent).collect(Collectors.toList())) {
+                disposeDevice(path, false, true);
+                ++count;
+            }
+            for (String path : adapters.keySet().stream().filter(absent).collect(Collectors.toList())) {
+                disposeAdapter(path, false, true);
+                ++count;
+            }
+
+            deniedDevices.removeIf(absent);
+            synchronized (rejectedDevices) {
+                rejectedDevices.keySet().removeIf(absent);
+            }
+            return count;
+        } finally {
+            registryLock.unlock();
         }
-        adapters.clear();
+    }
 
-        unbind();
+    /**
+     * Start notification sessions of characteristics with subscribers again.
+     */
+    void resumeNotifications() {
+        for (BluezCharacteristic characteristic : characteristics.values()) {
+            characteristic.resumeNotifications();
+        }
+    }
+
+    public void dispose() {
+        registryLock.lock();
+        try {
+            for (BluezDevice device : devices.values()) {
+                BluezDevice.dispose(device, true, true);
+            }
+            devices.clear();
+            deniedDevices.clear();
+            rejectedDevices.clear();
+            services.clear();
+            characteristics.clear();
+            descriptors.clear();
+            descriptorIndex.clear();
+            descriptorUuidIndex.clear();
+
+            for (BluezAdapter adapter : adapters.values()) {
+                BluezAdapter.dispose(adapter, true, true);
+                subscriptions.remove(SignalSubscriptions.devicesOf(adapter.getPath()));
+            }
+            adapters.clear();
+            signalAccounting.clear();
+
+            unbind();
+            connections.dispose();
+        } finally {
+            registryLock.unlock();
+        }
     } 
 }
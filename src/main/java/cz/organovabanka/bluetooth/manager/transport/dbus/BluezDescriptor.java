@@ -0,0 +1,157 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.Variant;
+
+import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.GattDescriptor1;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnikdev.bluetooth.manager.NotReadyException;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A class representing Bluez gatt descriptors.
+ * Descriptors have no counterpart in the transport API, they are managed under their characteristic.
+ * @author Lukas Rucka
+ */
+class BluezDescriptor extends BluezObjectBase {
+    private static final Logger logger = LoggerFactory.getLogger(BluezDescriptor.class);
+
+    private static final Map<String, Variant> NO_OPTIONS = Collections.<String, Variant>emptyMap();
+
+    BluezDescriptor(BluezContext context, String dbusObjectPath) throws BluezException {
+        this(context, dbusObjectPath, Collections.<String, Variant>emptyMap());
+    }
+
+    BluezDescriptor(BluezContext context, String dbusObjectPath, Map<String, Variant> properties) throws BluezException {
+        super(context, dbusObjectPath, BluezCommons.BLUEZ_IFACE_DESCRIPTOR);
+
+        // setup default values of cached attributes
+        cache.setDefault("UUID", "invalid-uuid");
+        cache.set("url", BluezCommons.DBUSB_PROTOCOL_NAME 
+            + "://XX:XX:XX:XX:XX:XX/YY:YY:YY:YY:YY:YY/0000180f-0000-1000-8000-00805f9b34fb/00002a19-0000-1000-8000-00805f9b34fb");
+
+        // take values delivered by bluez, resort to remote calls only for missing ones
+        cache.update(properties);
+        if (!properties.containsKey("UUID")) {
+            getUUIDRemote();
+        }
+
+        updateURL();
+    }
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    private GattDescriptor1 remoteInterface() throws BluezException {
+        return getRemoteInterface(GattDescriptor1.class);
+    }
+
+    protected void updateURL() throws BluezException {
+        // urls do not address descriptors, use the one of the characteristic
+        BluezCharacteristic characteristic = context.getManagedCharacteristic(getCharacteristicPath(), false);
+        if (characteristic == null) {
+            getLogger().error("{}: Unable to update URL, characteristic not managed", dbusObjectPath);
+            return;
+        }
+        cache.set("url", characteristic.getURL().toString());
+    }
+
+    public String getCharacteristicPath() {
+        // local part only
+        return BluezCommons.parsePath(dbusObjectPath, BluezCharacteristic.class);
+    }
+
+    protected void disposeRemote() {
+        // remote part
+        // nop
+    }
+
+    protected void disposeLocal(boolean doRemoteCalls, boolean recurse) {
+        // local part
+        // nop
+    }
+
+    public static void dispose(BluezDescriptor descriptor, boolean doRemoteCalls, boolean recurse) {
+        logger.debug("{}: Disposing descriptor", descriptor.dbusObjectPath);
+        BluezObjectBase.dispose(descriptor, doRemoteCalls, recurse);
+    }
+
+    private void getUUIDRemote() {
+        // remote - update cache
+        // property - no action if read fails
+        this.<String>attemptCachedPropertyUpdate("UUID");
+    }
+
+    public String getUUID() {
+        // local part only, uuid of a descriptor never changes
+        return this.cache.<String>get("UUID");
+    }
+
+    /**
+     * Get uuid as delivered by bluez, null if it could not be read.
+     */
+    String getKnownUUID() {
+        return this.cache.<String>getKnown("UUID");
+    }
+
+    public byte[] readValue() throws BluezException, NotReadyException {
+        if (!allowRemoteCalls) {
+            getLogger().debug("{}: Not allowed to make remote calls", dbusObjectPath);
+            return null;
+        }
+
+        try {
+            return this.<byte[]>callWithDispose("ReadValue",
+                () -> { return remoteInterface().ReadValue(NO_OPTIONS); },
+                () -> { allowRemoteCalls = false; context.disposeDescriptor(dbusObjectPath, false, true); }
+            );
+        } catch (NotReadyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BluezException("Unable to read value of " + dbusObjectPath + ": " + e.getMessage(), e);
+        }
+    }
+
+    public boolean writeValue(byte[] bytes) throws BluezException, NotReadyException {
+        if (!allowRemoteCalls) {
+            getLogger().debug("{}: Not allowed to make remote calls", dbusObjectPath);
+            return false;
+        }
+
+        try {
+            callWithDispose("WriteValue",
+                () -> { remoteInterface().WriteValue(bytes, NO_OPTIONS); },
+                () -> { allowRemoteCalls = false; context.disposeDescriptor(dbusObjectPath, false, true); }
+            );
+        } catch (NotReadyException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new BluezException("Unable to commit write for " + dbusObjectPath + ": " + e.getMessage(), e);
+        }
+        return true;
+    }
+}
@@ -21,22 +21,28 @@ package cz.organovabanka.bluetooth.manager.transport.dbus;
  */
 
 import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusAsyncReply;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.UInt16;
 import org.freedesktop.dbus.UInt32;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.NotConnected;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sputnikdev.bluetooth.DataConversionUtils;
 import org.sputnikdev.bluetooth.URL;
 import org.sputnikdev.bluetooth.manager.BluetoothAddressType;
+import org.sputnikdev.bluetooth.manager.NotReadyException;
+import org.sputnikdev.bluetooth.manager.transport.Characteristic;
 import org.sputnikdev.bluetooth.manager.transport.Device;
 import org.sputnikdev.bluetooth.manager.transport.Notification;
 import org.sputnikdev.bluetooth.manager.transport.Service;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -45,6 +51,7 @@ import java.util.stream.Collectors;
 
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.ObjectManager;
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Device1;
+import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.GattCharacteristic1;
 
 /**
  * A class representing Bluez devices.
@@ -53,136 +60,171 @@ import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Device1;
 class BluezDevice extends BluezObjectBase implements Device {
     private static final Logger logger = LoggerFactory.getLogger(BluezDevice.class);
 
-    private final Device1 remoteInterface;
+    // shared WriteValue options of batch writes, by write procedure
+    private static final Map<BatchWrite.Mode, Map<String, Variant>> WRITE_OPTIONS = new EnumMap<BatchWrite.Mode, Map<String, Variant>>(BatchWrite.Mode.class);
 
-    private Notification<Short> notificationRssi = null;
-    private Notification<Boolean> notificationBlocked = null;
-    private Notification<Boolean> notificationConnected = null;
-    private Notification<Boolean> notificationServicesResolved = null;
-    private Notification<Map<String, byte[]>> notificationServiceData = null;
-    private Notification<Map<Short, byte[]>> notificationManufacturerData = null;
+    static {
+        for (BatchWrite.Mode mode : BatchWrite.Mode.values()) {
+            WRITE_OPTIONS.put(mode, Collections.singletonMap("type", new Variant(mode.getType())));
+        }
+    }
+
+    private volatile Notification<Short> notificationRssi = null;
+    private volatile Notification<Boolean> notificationBlocked = null;
+    private volatile Notification<Boolean> notificationConnected = null;
+    private volatile Notification<Boolean> notificationServicesResolved = null;
+    private volatile Notification<Map<String, byte[]>> notificationServiceData = null;
+    private volatile Notification<Map<Short, byte[]>> notificationManufacturerData = null;
 
     BluezDevice(BluezContext context, String dbusObjectPath) throws BluezException {
+        this(context, dbusObjectPath, Collections.<String, Variant>emptyMap());
+    }
+
+    BluezDevice(BluezContext context, String dbusObjectPath, Map<String, Variant> properties) throws BluezException {
         super(context, dbusObjectPath, BluezCommons.BLUEZ_IFACE_DEVICE);
 
         // setup default values of cached attributes
-        // todo following
-        try {
-            this.remoteInterface = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, dbusObjectPath, Device1.class);
-        } catch (DBusException e) {
-            throw new BluezException("Unable to access dbus objects for " + dbusObjectPath, e); 
-        }
+        cache.setDefault("Blocked", new Boolean(false));
+        cache.setDefault("Connected", new Boolean(false));
+        cache.setDefault("Paired", Boolean.FALSE);
+        cache.setDefault("Trusted", Boolean.FALSE);
+        cache.setDefault("ServicesResolved", new Boolean(false));
 
-        cache.set("Blocked", new Boolean(false));
-        cache.set("Connected", new Boolean(false));
-        cache.set("ServicesResolved", new Boolean(false));
+        cache.setDefault("AddressType", "UNKNOWN");
+        cache.setDefault("Address", "YY:YY:YY:YY:YY:YY");
+        cache.setDefault("Adapter", "/org/bluez/hciX");
 
-        cache.set("AddressType", "UNKNOWN");
-        cache.set("Address", "YY:YY:YY:YY:YY:YY");
-        cache.set("Adapter", "/org/bluez/hciX");
+        cache.setDefault("Alias", "Unknown");
+        cache.setDefault("Name", "Unknown");
 
-        cache.set("Alias", "Unknown");
-        cache.set("Name", "Unknown");
-
-        cache.set("Class", new UInt32(0));
-        cache.set("RSSI", new Short((short)-100));
-        cache.set("TxPower", new Short((short)-100));
+        cache.setDefault("Class", new UInt32(0));
+        cache.setDefault("RSSI", new Short((short)-100));
+        cache.setDefault("TxPower", new Short((short)-100));
 
         cache.set("url", BluezCommons.DBUSB_PROTOCOL_NAME + "://XX:XX:XX:XX:XX:XX/YY:YY:YY:YY:YY:YY");
 
-        setupHandlers();
+        // take values delivered by bluez, resort to remote calls only for missing ones
+        cache.update(properties);
+        if (!properties.containsKey("Address")) {
+            getAddressRemote();
+        }
+
         updateURL();
     }
 
-    private void setupHandlers() {
-        this.handlers.put("RSSI", (rssi) -> {
-            if (notificationRssi == null) {
+    // handlers read each listener once, as it may be replaced concurrently
+    private static final PropertyDispatch<BluezDevice> DISPATCH = PropertyDispatch.<BluezDevice>builder()
+        .on("RSSI", (device, rssi) -> {
+            Notification<Short> notification = device.notificationRssi;
+            if (notification == null) {
                 return;
             }
 
+            short value = ((Short)rssi.getValue()).shortValue();
             BluezFactory.notifySafely(
-                () -> { notificationRssi.notify(((Short)rssi.getValue()).shortValue()); }, 
-                getLogger(), dbusObjectPath + ":RSSI");
-        });
-
-        this.handlers.put("Blocked", (blocked) -> {
-            if (notificationBlocked == null) {
+                () -> { notification.notify(value); }, 
+                device.getLogger(), device.dbusObjectPath + ":RSSI");
+        })
+        .on("Blocked", (device, blocked) -> {
+            Notification<Boolean> notification = device.notificationBlocked;
+            if (notification == null) {
                 return;
             }
 
+            boolean value = ((Boolean)blocked.getValue()).booleanValue();
             BluezFactory.notifySafely(
-                () -> { notificationBlocked.notify(((Boolean)blocked.getValue()).booleanValue()); }, 
-                getLogger(), dbusObjectPath + ":Blocked"); 
-        });
-        this.handlers.put("Connected", (connected) -> {
-            if (notificationConnected == null) {
-                return;
-            }
-
+                () -> { notification.notify(value); }, 
+                device.getLogger(), device.dbusObjectPath + ":Blocked"); 
+        })
+        .on("Connected", (device, connected) -> {
             boolean value = ((Boolean)connected.getValue()).booleanValue();
+            if (!value) {
+                device.context.invalidateValues(device.dbusObjectPath);
+            }
 
-            BluezFactory.notifySafely(
-                () -> { notificationConnected.notify(value); }, 
-                getLogger(), dbusObjectPath + ":Connected");
-        });
-        this.handlers.put("ServicesResolved", (resolved) -> {
-            if (notificationServicesResolved == null) {
+            Notification<Boolean> notification = device.notificationConnected;
+            if (notification == null) {
                 return;
             }
 
+            BluezFactory.notifySafely(
+                () -> { notification.notify(value); }, 
+                device.getLogger(), device.dbusObjectPath + ":Connected");
+        })
+        .on("ServicesResolved", (device, resolved) -> {
             boolean value = (Boolean)resolved.getValue();
+            if (!value) {
+                // services are being changed, cached values may not apply anymore
+                device.context.invalidateValues(device.dbusObjectPath);
+            }
 
-            BluezFactory.notifySafely(
-                () -> { notificationServicesResolved.notify(value); },
-                getLogger(), dbusObjectPath + ":ServicesResolved");
-        });
+            Notification<Boolean> notification = device.notificationServicesResolved;
+            if (notification == null) {
+                return;
+            }
 
-        this.handlers.put("ServiceData", (data) -> {
-            if (notificationServiceData == null) {
+            BluezFactory.notifySafely(
+                () -> { notification.notify(value); },
+                device.getLogger(), device.dbusObjectPath + ":ServicesResolved");
+        })
+        .on("ServiceData", (device, data) -> {
+            Notification<Map<String, byte[]>> notification = device.notificationServiceData;
+            if (notification == null) {
                 return;
             }
 
-            Map<String, byte[]> rawData = convertServiceData((Map<String, Variant>)data.getValue());
-            if (getLogger().isTraceEnabled()) {
-                getLogger().trace("{}: Service data changed: {}", dbusObjectPath, hexdump(rawData));
+            Map<String, byte[]> rawData = device.convertServiceData((Map<String, Variant>)data.getValue());
+            if (device.getLogger().isTraceEnabled()) {
+                device.getLogger().trace("{}: Service data changed: {}", device.dbusObjectPath, device.hexdump(rawData));
             }
 
             BluezFactory.notifySafely(
-                () -> { notificationServiceData.notify(rawData); },
-                getLogger(), dbusObjectPath + ":ServiceData");
-        });
-        this.handlers.put("ManufacturerData", (data) -> {
-            if (notificationManufacturerData == null) {
+                () -> { notification.notify(rawData); },
+                device.getLogger(), device.dbusObjectPath + ":ServiceData");
+        })
+        .on("ManufacturerData", (device, data) -> {
+            Notification<Map<Short, byte[]>> notification = device.notificationManufacturerData;
+            if (notification == null) {
                 return;
             }
 
-            Map<Short, byte[]> rawData = convertManufacturerData((Map<UInt16, Variant>)data.getValue());
-            if (getLogger().isTraceEnabled()) {
-                getLogger().trace("{}: Manufacturer data changed: {}", dbusObjectPath, hexdump(rawData));
+            Map<Short, byte[]> rawData = device.convertManufacturerData((Map<UInt16, Variant>)data.getValue());
+            if (device.getLogger().isTraceEnabled()) {
+                device.getLogger().trace("{}: Manufacturer data changed: {}", device.dbusObjectPath, device.hexdump(rawData));
             }
 
             BluezFactory.notifySafely(
-                () -> { notificationManufacturerData.notify(rawData); }, 
-                getLogger(), dbusObjectPath + ":ManufacturerData");
+                () -> { notification.notify(rawData); }, 
+                device.getLogger(), device.dbusObjectPath + ":ManufacturerData");
+        })
+        .build();
 
-        });
-    } 
+    @Override
+    public void commitNotifications(Map<String, Variant> changed) {
+        DISPATCH.dispatch(this, changed);
+    }
 
     protected Logger getLogger() {
         return logger;
     }
 
+    private Device1 remoteInterface() throws BluezException {
+        return getRemoteInterface(Device1.class);
+    }
+
     /* dbus & openhab handles */
 
     protected void updateURL() throws BluezException {
-        try {
-            String adapterPath = getAdapterPath();
-            BluezAdapter adapter = context.getManagedAdapter(adapterPath, false);
-            URL url = adapter.getURL().copyWithDevice(getAddress());
-            cache.set("url", url.toString());
-        } catch (BluezException e) {
-            getLogger().error("{}: Unable to update URL, reason: {}", dbusObjectPath, e.getMessage());
+        // local part only, derived from cached adapter
+        String adapterPath = getAdapterPath();
+        BluezAdapter adapter = context.getManagedAdapter(adapterPath, false);
+        if (adapter == null) {
+            getLogger().error("{}: Unable to update URL, adapter {} not managed", dbusObjectPath, adapterPath);
+            return;
         }
+
+        URL url = adapter.getURL().copyWithDevice(cache.<String>get("Address"));
+        cache.set("url", url.toString());
     }
 
     public String getAdapterPath() {
@@ -190,6 +232,23 @@ class BluezDevice extends BluezObjectBase implements Device {
         return BluezCommons.parsePath(dbusObjectPath, BluezAdapter.class);
     }
 
+    /**
+     * Tells, whether the device handle must survive registry eviction.
+     * Handles with listeners are retained too, a recreated handle would not carry them.
+     * Local part only, as eviction must not generate bus traffic.
+     */
+    public boolean isRetained() {
+        return this.cache.<Boolean>get("Paired").booleanValue()
+            || this.cache.<Boolean>get("Trusted").booleanValue()
+            || this.cache.<Boolean>get("Connected").booleanValue()
+            || notificationRssi != null
+            || notificationBlocked != null
+            || notificationConnected != null
+            || notificationServicesResolved != null
+            || notificationServiceData != null
+            || notificationManufacturerData != null;
+    }
+
     /* begin remote device methods */
 
     private void disconnectRemote() throws BluezException {
@@ -199,8 +258,8 @@ class BluezDevice extends BluezObjectBase implements Device {
         }
 
         try {
-            callWithDispose(
-                () -> { remoteInterface.Disconnect(); },
+            callWithDispose("Disconnect",
+                () -> { remoteInterface().Disconnect(); },
                 () -> { allowRemoteCalls = false; context.disposeDevice(dbusObjectPath, false, true); }
             );
         } catch (RuntimeException e) {
@@ -252,8 +311,8 @@ char0013: Not connected
         }
 
         try {
-            callWithDispose(
-                () -> { remoteInterface.Connect(); },
+            callWithDispose("Connect",
+                () -> { remoteInterface().Connect(); },
                 () -> { allowRemoteCalls = false; context.disposeDevice(dbusObjectPath, false, true); }
             );
         } catch (RuntimeException e) {
@@ -268,6 +327,112 @@ char0013: Not connected
         return isConnected();
     }
 
+    /**
+     * Write values of multiple characteristics of this device in one go. All writes are submitted
+     * at once and queued by bluez on the device connection, so the batch waits for a single round
+     * trip instead of one per write. Failed write does not stop the following ones.
+     * Reliable writes are reliable per entry, bluez offers no transaction spanning characteristics.
+     * @return outcome of every entry, in order of entries
+     */
+    public List<BatchWrite.Outcome> writeBatch(List<BatchWrite.Entry> entries) throws BluezException {
+        getLogger().debug("{}: Writing batch of {} values", dbusObjectPath, entries.size());
+        int size = entries.size();
+        BatchWrite.Outcome[] outcomes = new BatchWrite.Outcome[size];
+        BluezCharacteristic[] targets = new BluezCharacteristic[size];
+        BatchWrite.Mode[] modes = new BatchWrite.Mode[size];
+        BluezEvents.Scope[] events = new BluezEvents.Scope[size];
+        DBusAsyncReply<?>[] replies = new DBusAsyncReply<?>[size];
+
+        // local part - resolve targets and write procedures
+        for (int i = 0; i < size; ++i) {
+            BatchWrite.Entry entry = entries.get(i);
+            Characteristic characteristic = entry.getCharacteristic();
+            if (!(characteristic instanceof BluezCharacteristic) 
+                    || !dbusObjectPath.equals(BluezCommons.parsePath(((BluezCharacteristic)characteristic).getPath(), BluezDevice.class))) {
+                outcomes[i] = new BatchWrite.Outcome(entry, entry.getMode(), BatchWrite.Status.FAILED,
+                    new BluezException("Characteristic " + characteristic.getURL() + " does not belong to " + dbusObjectPath));
+                continue;
+            }
+
+            BluezCharacteristic target = (BluezCharacteristic)characteristic;
+            if (!target.allowRemoteCalls) {
+                outcomes[i] = new BatchWrite.Outcome(entry, entry.getMode(), BatchWrite.Status.DISPOSED,
+                    new BluezException("Not allowed to make remote calls on " + target.getPath()));
+                continue;
+            }
+
+            BatchWrite.Mode mode = entry.getMode();
+            if (mode.getFlag() != null && !target.hasFlag(mode.getFlag())) {
+                mode = BatchWrite.Mode.REQUEST;
+            }
+            targets[i] = target;
+            modes[i] = mode;
+            // value read last is stale, even if the write fails
+            target.invalidateValue();
+        }
+
+        // call remote part - submit all writes, then collect the replies
+        // characteristics of the device share its call lane
+        BluezConnections.Lane lane = lane();
+        lane.lock.lock();
+        try {
+            for (int i = 0; i < size; ++i) {
+                if (targets[i] == null) {
+                    continue;
+                }
+
+                events[i] = BluezEvents.remoteCall(targets[i].getPath(), "WriteValue");
+                try {
+                    GattCharacteristic1 remote = targets[i].getRemoteInterface(GattCharacteristic1.class);
+                    replies[i] = lane.connection.callMethodAsync(remote, "WriteValue", entries.get(i).getValue(), WRITE_OPTIONS.get(modes[i]));
+                } catch (RuntimeException e) {
+                    outcomes[i] = failedWrite(entries.get(i), modes[i], targets[i], e, events[i]);
+                }
+            }
+        } finally {
+            lane.lock.unlock();
+        }
+
+        for (int i = 0; i < size; ++i) {
+            if (replies[i] == null) {
+                continue;
+            }
+
+            try {
+                replies[i].getReply();
+                events[i].finish(BluezEvents.OUTCOME_OK);
+                outcomes[i] = new BatchWrite.Outcome(entries.get(i), modes[i], BatchWrite.Status.WRITTEN, null);
+            } catch (RuntimeException e) {
+                outcomes[i] = failedWrite(entries.get(i), modes[i], targets[i], e, events[i]);
+            }
+        }
+
+        return Collections.unmodifiableList(Arrays.asList(outcomes));
+    }
+
+    private BatchWrite.Outcome failedWrite(BatchWrite.Entry entry, BatchWrite.Mode mode, BluezCharacteristic target, 
+            RuntimeException cause, BluezEvents.Scope event) {
+        String outcome = BluezEvents.OUTCOME_ERROR;
+        try {
+            if (cause instanceof NotConnected) {
+                throw new NotReadyException("Device is not connected " + dbusObjectPath);
+            }
+
+            outcome = target.handleCallFailure(cause, 
+                () -> { target.allowRemoteCalls = false; context.disposeCharacteristic(target.getPath(), false, true); }
+            );
+            return new BatchWrite.Outcome(entry, mode, BatchWrite.Status.DISPOSED, cause);
+        } catch (NotReadyException e) {
+            outcome = BluezEvents.OUTCOME_NOT_READY;
+            return new BatchWrite.Outcome(entry, mode, BatchWrite.Status.NOT_READY, e);
+        } catch (RuntimeException e) {
+            getLogger().debug("{}: Batch write of {} failed: {}", dbusObjectPath, target.getPath(), e.getMessage());
+            return new BatchWrite.Outcome(entry, mode, BatchWrite.Status.FAILED, e);
+        } finally {
+            event.finish(outcome);
+        }
+    }
+
     /* notification setters */
 
     @Override
@@ -357,10 +522,8 @@ char0013: Not connected
 
         Map<Path, Map<String, Map<String, Variant>>> allObjects = null;
         try {
-            ObjectManager objectManager = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+            ObjectManager objectManager = context.getObjectManager();
             allObjects = objectManager.GetManagedObjects();
-        } catch (DBusException e) {
-            throw new BluezException("Unable to enumerate bluetooth objects when processing " + dbusObjectPath, e);
         } catch (RuntimeException e) {
             throw new BluezException("Unable to enumerate bluetooth objects when processing " + dbusObjectPath, e);
         }
@@ -371,9 +534,16 @@ char0013: Not connected
 
         try {
             return Collections.unmodifiableList(allObjects.entrySet().stream()
-                .map((entry) -> { return entry.getKey().toString(); })
-                .filter((path) -> { return servicePattern.matcher(path).matches(); })
-                .map((path) -> { return new BluezService(context, path); })
+                .filter((entry) -> { return servicePattern.matcher(entry.getKey().toString()).matches(); })
+                .map((entry) -> {
+                    String path = entry.getKey().toString();
+                    Map<String, Variant> vals = entry.getValue().get(BluezCommons.BLUEZ_IFACE_SERVICE);
+                    BluezService service = context.getManagedService(path, vals);
+                    if (vals != null) {
+                        service.getCache().update(vals);
+                    }
+                    return service;
+                })
                 .collect(Collectors.toList()));
         } catch (RuntimeException e) {
             throw new BluezException("Unable to unpack bluez objects when processing " + dbusObjectPath, e);
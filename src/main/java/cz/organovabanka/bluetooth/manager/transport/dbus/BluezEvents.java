@@ -0,0 +1,62 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Flight recorder hooks for dbus calls, bluez signals and notification callbacks.
+ * This is the java 8 variant, which records nothing. The multi-release jar carries
+ * a JFR backed variant under META-INF/versions/11 with identical signatures.
+ * @author Lukas Rucka
+ */
+final class BluezEvents {
+    static final String OUTCOME_OK = "ok";
+    static final String OUTCOME_NOT_READY = "not-ready";
+    static final String OUTCOME_DISPOSED = "disposed";
+    static final String OUTCOME_DROPPED = "dropped";
+    static final String OUTCOME_QUEUED = "queued";
+    static final String OUTCOME_SHED = "shed";
+    static final String OUTCOME_ERROR = "error";
+
+    /**
+     * A single recorded operation, started on creation and committed by finish().
+     */
+    interface Scope {
+        void finish(String outcome);
+    }
+
+    private static final Scope NOOP = (outcome) -> { };
+
+    private BluezEvents() {
+        ;
+    }
+
+    static Scope remoteCall(String path, String member) {
+        return NOOP;
+    }
+
+    static Scope signal(String signal, String path) {
+        return NOOP;
+    }
+
+    static Scope notification(String path) {
+        return NOOP;
+    }
+}
@@ -0,0 +1,62 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Executors of the transport, shared by all factories.
+ * This is the java 8 variant, running on platform thread pools. The multi-release jar carries
+ * a virtual thread variant under META-INF/versions/21 with identical signatures.
+ * @author Lukas Rucka
+ */
+final class BluezExecutors {
+    private static final ExecutorService NOTIFICATION_SERVICE = Executors.newCachedThreadPool();
+    private static final ExecutorService WRITE_SERVICE = Executors.newCachedThreadPool();
+    private static final ScheduledExecutorService REPOPULATION_SERVICE = Executors.newScheduledThreadPool(1);
+    private static final ScheduledExecutorService SIGNAL_SERVICE = Executors.newScheduledThreadPool(1);
+
+    private BluezExecutors() {
+        ;
+    }
+
+    /** Delivery of notifications to subscribers, one task per notification. */
+    static ExecutorService notificationService() {
+        return NOTIFICATION_SERVICE;
+    }
+
+    /** Sending of coalesced characteristic writes parked while another write was in flight. */
+    static ExecutorService writeService() {
+        return WRITE_SERVICE;
+    }
+
+    /** Binding to the bluez daemon, repopulation and registry eviction. */
+    static ScheduledExecutorService repopulationService() {
+        return REPOPULATION_SERVICE;
+    }
+
+    /** Delayed dispatch of coalesced signals. */
+    static ScheduledExecutorService signalService() {
+        return SIGNAL_SERVICE;
+    }
+}
@@ -39,23 +39,28 @@ import org.slf4j.LoggerFactory;
 import org.sputnikdev.bluetooth.URL;
 import org.sputnikdev.bluetooth.manager.DiscoveredAdapter;
 import org.sputnikdev.bluetooth.manager.DiscoveredDevice;
+import org.sputnikdev.bluetooth.manager.NotReadyException;
 import org.sputnikdev.bluetooth.manager.transport.Adapter;
 import org.sputnikdev.bluetooth.manager.transport.BluetoothObjectFactory;
 import org.sputnikdev.bluetooth.manager.transport.Characteristic;
 import org.sputnikdev.bluetooth.manager.transport.Device;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.ObjectManager;
@@ -68,18 +73,78 @@ import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Properties;
 public class BluezFactory implements BluetoothObjectFactory {
     private static final Logger logger = LoggerFactory.getLogger(BluezFactory.class);
 
-    private static final ExecutorService NOTIFICATION_SERVICE = Executors.newCachedThreadPool();
-    private static final ScheduledExecutorService repopulationService = Executors.newScheduledThreadPool(1);
+    private static final ScheduledExecutorService repopulationService = BluezExecutors.repopulationService();
+
+    /** Maximum number of managed device handles, 0 for unlimited. */
+    public static final String CONFIG_DEVICE_LIMIT = "deviceLimit";
+    /** Seconds without a signal after which a device handle gets evicted, 0 to disable. */
+    public static final String CONFIG_DEVICE_IDLE_TIMEOUT = "deviceIdleTimeout";
+    /** Whether to subscribe for property changes of relevant bluez objects only (applied on rebind). */
+    public static final String CONFIG_SIGNAL_NARROWING = "signalNarrowing";
+    /** Milliseconds to coalesce property changes of a single object for, 0 for immediate dispatch. */
+    public static final String CONFIG_SIGNAL_COALESCING_WINDOW = "signalCoalescingWindow";
+    /** Whether to keep per object signal rates for getTopTalkers. */
+    public static final String CONFIG_SIGNAL_ACCOUNTING = "signalAccounting";
+    /** PropertiesChanged signals per second an object may emit before being degraded, 0 to disable. */
+    public static final String CONFIG_SIGNAL_RATE_LIMIT = "signalRateLimit";
+    /** Signals an object may emit at once above the rate limit, 0 for twice the limit. */
+    public static final String CONFIG_SIGNAL_RATE_BURST = "signalRateBurst";
+    /** Degraded objects get one of this many signals delivered. */
+    public static final String CONFIG_SIGNAL_SAMPLING = "signalSampling";
+    /** Device addresses to admit, comma separated. */
+    public static final String CONFIG_ADMIT_ADDRESSES = "admitAddresses";
+    /** Device addresses never to admit, comma separated. */
+    public static final String CONFIG_DENY_ADDRESSES = "denyAddresses";
+    /** Address prefixes (OUI, e.g. 00:1A:7D) of devices to admit, comma separated. */
+    public static final String CONFIG_ADMIT_OUI = "admitOui";
+    /** Advertised service UUIDs of devices to admit, comma separated. */
+    public static final String CONFIG_ADMIT_SERVICE_UUIDS = "admitServiceUuids";
+    /** Manufacturer ids (decimal or 0x prefixed) of devices to admit, comma separated. */
+    public static final String CONFIG_ADMIT_MANUFACTURER_IDS = "admitManufacturerIds";
+    /** Minimal RSSI of devices to admit. */
+    public static final String CONFIG_ADMIT_MIN_RSSI = "admitMinRssi";
+
+    /** Milliseconds a characteristic value read is reused for by subsequent reads, 0 to disable. */
+    public static final String CONFIG_READ_REUSE_WINDOW = "readReuseWindow";
+    /** Whether to cache values of static characteristics (device information, generic access) until disconnect. */
+    public static final String CONFIG_VALUE_CACHE_STATIC = "valueCacheStatic";
+    /** Prefix of per characteristic uuid value cache time to live in seconds, negative until disconnect. */
+    public static final String CONFIG_VALUE_CACHE_TTL_PREFIX = "valueCacheTtl.";
+    /** Number of dedicated dbus connections for method calls, 0 to make calls on the signal connection. */
+    public static final String CONFIG_CALL_CONNECTIONS = "callConnections";
+    /** Uuids of characteristics, writes of which are coalesced to the latest value, comma separated. */
+    public static final String CONFIG_COALESCE_WRITES = "coalesceWrites";
+
+    /** Milliseconds to wait for an adapter to report its new power state. */
+    public static final String CONFIG_POWER_TIMEOUT = "powerTimeout";
+    /** Milliseconds to let an adapter settle after it reported its new power state. */
+    public static final String CONFIG_POWER_SETTLE_TIME = "powerSettleTime";
+
+    private static final String[] ADMISSION_OPTIONS = {
+        CONFIG_ADMIT_ADDRESSES, CONFIG_DENY_ADDRESSES, CONFIG_ADMIT_OUI,
+        CONFIG_ADMIT_SERVICE_UUIDS, CONFIG_ADMIT_MANUFACTURER_IDS, CONFIG_ADMIT_MIN_RSSI
+    };
+
+    private static final long EVICTION_PERIOD = 30;
+    // seconds a restarted daemon gets to export its adapters, before handles under missing ones are dropped
+    private static final long RESYNC_GRACE = 5;
 
     private final BluezContext context;
+    // serializes probing of added and removed objects, not a monitor as probing may call bluez
+    private final ReentrantLock probeLock = new ReentrantLock();
+    // whether daemon restarts are signalled by bus name owner changes
+    private volatile boolean ownerWatch = false;
 
     private class Binder implements Runnable {
         public void run() {
             try {
                 DBus dbus = context.getDbusConnection().getRemoteObject(BluezCommons.DBUS_DBUS_BUSNAME, BluezCommons.DBUS_DBUS_OBJECT, DBus.class);
                 if (!dbus.NameHasOwner(BluezCommons.BLUEZ_DBUS_BUSNAME)) {
-                    // have not found bluez daemon, reschedule
-                    repopulationService.schedule(this, 15, SECONDS);
+                    // have not found bluez daemon, wait for it to show up on the bus or reschedule
+                    if (!ownerWatch) {
+                        repopulationService.schedule(this, 15, SECONDS);
+                    }
+                    return;
                 }
             } catch (DBusException e) {
                 logger.error("Cannot check bluetooth daemon: {}", e.getMessage());
@@ -103,11 +168,74 @@ public class BluezFactory implements BluetoothObjectFactory {
     }
     private final Runnable unbinder = new Unbinder();
 
+    private class Resyncer implements Runnable {
+        public void run() {
+            try {
+                context.unbind();
+                context.bind();
+                resync(false);
+                // adapters may still be registering, drop what has not shown up after a while
+                repopulationService.schedule(() -> {
+                    try {
+                        resync(true);
+                    } catch (RuntimeException e) {
+                        logger.warn("Unable to drop handles of objects gone with bluetooth daemon: {}", e.getMessage());
+                    }
+                }, RESYNC_GRACE, SECONDS);
+            } catch (RuntimeException e) {
+                logger.error("Unable to resynchronize with bluetooth daemon: {}", e.getMessage());
+                repopulationService.schedule(binder, 15, SECONDS);
+            }
+        };
+    }
+    private final Runnable resyncer = new Resyncer();
+
+    private class OwnerHandler implements DBusSigHandler<DBus.NameOwnerChanged> {
+        public void handle(DBus.NameOwnerChanged s) {
+            if (!BluezCommons.BLUEZ_DBUS_BUSNAME.equals(s.name)) {
+                return;
+            }
+
+            BluezEvents.Scope event = BluezEvents.signal("NameOwnerChanged", BluezCommons.BLUEZ_DBUS_OBJECT);
+            String outcome = BluezEvents.OUTCOME_ERROR;
+            try {
+                if (s.newOwner == null || s.newOwner.isEmpty()) {
+                    repopulationService.execute(unbinder);
+                } else {
+                    logger.info("Bluetooth daemon appeared on system bus as {}, resynchronizing...", s.newOwner);
+                    repopulationService.execute(resyncer);
+                }
+                outcome = BluezEvents.OUTCOME_QUEUED;
+            } finally {
+                event.finish(outcome);
+            }
+        }
+    }
+
+    private class Evictor implements Runnable {
+        public void run() {
+            try {
+                context.evictDevices();
+                context.pruneSignalAccounting();
+            } catch (RuntimeException e) {
+                logger.error("Unable to evict stale bluetooth devices: {}", e.getMessage());
+            }
+        };
+    }
+
     private class AddedHandler implements DBusSigHandler<ObjectManager.InterfacesAdded> {
         public void handle(ObjectManager.InterfacesAdded s) {
             String objpath = s.getObjectPath().toString();
-            for (Map.Entry<String, Map<String, Variant>> pathEntry : s.getInterfacesAdded().entrySet()) {
-                probeAdd(objpath, pathEntry.getKey(), pathEntry.getValue());
+            BluezEvents.Scope event = BluezEvents.signal("InterfacesAdded", objpath);
+            String outcome = BluezEvents.OUTCOME_ERROR;
+
+            try {
+                for (Map.Entry<String, Map<String, Variant>> pathEntry : s.getInterfacesAdded().entrySet()) {
+                    probeAdd(objpath, pathEntry.getKey(), pathEntry.getValue());
+                }
+                outcome = BluezEvents.OUTCOME_OK;
+            } finally {
+                event.finish(outcome);
             }
         }
     }
@@ -115,87 +243,179 @@ public class BluezFactory implements BluetoothObjectFactory {
     private class RemovedHandler implements DBusSigHandler<ObjectManager.InterfacesRemoved> {
         public void handle(ObjectManager.InterfacesRemoved s) {
             String objpath = s.getObjectPath().toString();
-            
-            if (BluezCommons.BLUEZ_DBUS_OBJECT.equals(objpath)) {
-                // bluez object disappeared - that means, the bluez daemon was restarted
-                repopulate();
-                return;
-            }
+            BluezEvents.Scope event = BluezEvents.signal("InterfacesRemoved", objpath);
+            String outcome = BluezEvents.OUTCOME_ERROR;
 
-            for (String iface : s.getInterfacesRemoved()) {
-                probeDrop(objpath, iface);
+            try {
+                if (BluezCommons.BLUEZ_DBUS_OBJECT.equals(objpath)) {
+                    // bluez object disappeared - that means, the bluez daemon was restarted,
+                    // which is handled by its bus name owner change, if watched
+                    if (!ownerWatch) {
+                        repopulate();
+                    }
+                    outcome = BluezEvents.OUTCOME_OK;
+                    return;
+                }
+
+                for (String iface : s.getInterfacesRemoved()) {
+                    probeDrop(objpath, iface);
+                }
+                outcome = BluezEvents.OUTCOME_OK;
+            } finally {
+                event.finish(outcome);
             }
         }
     }
 
     public BluezFactory() throws BluezException {
-        context = new BluezContext();
+        this(SystemBusConnectionProvider.select());
+    }
+
+    /**
+     * Create factory running over connections of given provider.
+     */
+    public BluezFactory(DBusConnectionProvider provider) throws BluezException {
+        context = new BluezContext(provider);
 
-        context.setupHandlers(new AddedHandler(), new RemovedHandler(), new PropertiesChangedHandler(context));
+        context.setupHandlers(new AddedHandler(), new RemovedHandler(), new PropertiesChangedHandler(context, BluezExecutors.signalService()));
+        ownerWatch = context.watchBluezOwner(new OwnerHandler());
         repopulationService.schedule(binder, 0, SECONDS);
+        repopulationService.scheduleWithFixedDelay(new Evictor(), EVICTION_PERIOD, EVICTION_PERIOD, SECONDS);
     }
 
     boolean isAdapter(String path, String iface) {
-        return path.equals(BluezCommons.parsePath(path, Adapter.class));
-        // iface.equals(BluezCommons.BLUEZ_IFACE_ADAPTER)
+        return BluezCommons.BLUEZ_IFACE_ADAPTER.equals(iface) && path.equals(BluezCommons.parsePath(path, BluezAdapter.class));
     }
 
     boolean isDevice(String path, String iface) {
-        return path.equals(BluezCommons.parsePath(path, Device.class));
-        // iface.equals(BluezCommons.BLUEZ_IFACE_DEVICE)
+        return BluezCommons.BLUEZ_IFACE_DEVICE.equals(iface) && path.equals(BluezCommons.parsePath(path, BluezDevice.class));
+    }
+
+    boolean isService(String path, String iface) {
+        return BluezCommons.BLUEZ_IFACE_SERVICE.equals(iface) && path.equals(BluezCommons.parsePath(path, BluezService.class));
     }
 
     boolean isCharacteristic(String path, String iface) {
-        return path.equals(BluezCommons.parsePath(path, Characteristic.class));
-        // iface.equals(BluezCommons.BLUEZ_IFACE_CHARACTERISTIC)
+        return BluezCommons.BLUEZ_IFACE_CHARACTERISTIC.equals(iface) && path.equals(BluezCommons.parsePath(path, BluezCharacteristic.class));
     }
 
-    public synchronized void probeAdd(String objpath, String iface, Map<String, Variant> vals) {
-        if (isAdapter(objpath, iface)) {
-            logger.debug("{}: discovered bluetooth adapter", objpath);
-            BluezAdapter adapter = context.getManagedAdapter(objpath, true);
-            adapter.getCache().update(vals);
-            return;
-        } else if (isDevice(objpath, iface)) {
-            logger.debug("{}: discovered bluetooth device", objpath);
+    boolean isDescriptor(String path, String iface) {
+        return BluezCommons.BLUEZ_IFACE_DESCRIPTOR.equals(iface) && path.equals(BluezCommons.parsePath(path, BluezDescriptor.class));
+    }
 
-            // ensure adapter exists before device gets added
-            String adapterPath = BluezCommons.parsePath(objpath, BluezAdapter.class);
-            BluezAdapter adapter = context.getManagedAdapter(adapterPath, true);
+    public void probeAdd(String objpath, String iface, Map<String, Variant> vals) {
+        probeLock.lock();
+        try {
+            if (vals == null) {
+                return;
+            }
 
-            BluezDevice device = context.getManagedDevice(objpath);
-            device.getCache().update(vals);
-            return;
-        } else if (isCharacteristic(objpath, iface)) {
-            logger.debug("{}: discovered bluetooth service characteristic", objpath);
+            // handles are created from delivered properties, no remote calls are involved
+            if (isAdapter(objpath, iface)) {
+                logger.debug("{}: discovered bluetooth adapter", objpath);
+                BluezAdapter adapter = context.getManagedAdapter(objpath, vals);
+                refresh(adapter, vals);
+                return;
+            } else if (isDevice(objpath, iface)) {
+                if (!context.admitDevice(objpath, vals)) {
+                    return;
+                }
+                logger.debug("{}: discovered bluetooth device", objpath);
 
-            // ensure adapter & device exist before characteristic gets added
-            String devicePath = BluezCommons.parsePath(objpath, BluezDevice.class);
-            BluezDevice device = context.getManagedDevice(devicePath);
-            if (device == null) {
-                // probe characteristic some time later
+                // ensure adapter exists before device gets added
+                String adapterPath = BluezCommons.parsePath(objpath, BluezAdapter.class);
+                BluezAdapter adapter = context.getManagedAdapter(adapterPath, true);
+
+                BluezDevice device = context.getManagedDevice(objpath, vals);
+                refresh(device, vals);
+                return;
+            } else if (isService(objpath, iface)) {
+                logger.debug("{}: discovered bluetooth service", objpath);
+
+                // services of devices not managed (rejected, evicted, not probed yet) are skipped
+                String devicePath = BluezCommons.parsePath(objpath, BluezDevice.class);
+                if (context.isRejected(devicePath)) {
+                    return;
+                }
+                BluezDevice device = context.getManagedDevice(devicePath, false);
+                if (device == null) {
+                    return;
+                }
+
+                BluezService service = context.getManagedService(objpath, vals);
+                refresh(service, vals);
+                return;
+            } else if (isCharacteristic(objpath, iface)) {
+                logger.debug("{}: discovered bluetooth service characteristic", objpath);
+
+                // characteristics of devices not managed are skipped
+                String devicePath = BluezCommons.parsePath(objpath, BluezDevice.class);
+                if (context.isRejected(devicePath)) {
+                    return;
+                }
+                BluezDevice device = context.getManagedDevice(devicePath, false);
+                if (device == null) {
+                    // probe characteristic some time later
+                    return;
+                }
+
+                BluezCharacteristic characteristic = context.getManagedCharacteristic(objpath, vals);
+                refresh(characteristic, vals);
+                return;
+            } else if (isDescriptor(objpath, iface)) {
+                // descriptors are managed only under managed characteristics
+                String characteristicPath = BluezCommons.parsePath(objpath, BluezCharacteristic.class);
+                if (context.getManagedCharacteristic(characteristicPath, false) == null) {
+                    return;
+                }
+
+                logger.debug("{}: discovered bluetooth characteristic descriptor", objpath);
+                BluezDescriptor descriptor = context.getManagedDescriptor(objpath, vals);
+                refresh(descriptor, vals);
                 return;
             }
+        } finally {
+            probeLock.unlock();
+        }
+    }
 
-            BluezCharacteristic characteristic = context.getManagedCharacteristic(objpath);
-            characteristic.getCache().update(vals);
-            return;
+    /**
+     * Update cached properties of a handle, notifying its waiters and listeners of the values which changed.
+     */
+    private static void refresh(BluezObjectBase target, Map<String, Variant> vals) {
+        Map<String, Variant> changed = target.getCache(target.getDBusIfaceName()).updateChanged(vals);
+        if (!changed.isEmpty()) {
+            target.propertiesChanged(changed);
         }
     }
 
-    public synchronized void probeDrop(String objpath, String iface) {
-        if (iface.equals(BluezCommons.BLUEZ_IFACE_ADAPTER)) {
-            logger.debug("{}: bluetooth adapter disappeared", objpath);
-            context.disposeAdapter(objpath, false, false);
-            return;
-        } else if (iface.equals(BluezCommons.BLUEZ_IFACE_DEVICE)) {
-            logger.debug("{}: bluetooth device disappeared", objpath);
-            context.disposeDevice(objpath, false, false);
-            return;
-        } else if (iface.equals(BluezCommons.BLUEZ_IFACE_CHARACTERISTIC)) {
-            logger.debug("{}: bluetooth service characteristic disappeared", objpath);
-            context.disposeCharacteristic(objpath, false, false);
-            return;
+    public void probeDrop(String objpath, String iface) {
+        probeLock.lock();
+        try {
+            if (iface.equals(BluezCommons.BLUEZ_IFACE_ADAPTER)) {
+                logger.debug("{}: bluetooth adapter disappeared", objpath);
+                context.disposeAdapter(objpath, false, false);
+                return;
+            } else if (iface.equals(BluezCommons.BLUEZ_IFACE_DEVICE)) {
+                logger.debug("{}: bluetooth device disappeared", objpath);
+                context.forgetRejected(objpath);
+                context.disposeDevice(objpath, false, false);
+                return;
+            } else if (iface.equals(BluezCommons.BLUEZ_IFACE_SERVICE)) {
+                logger.debug("{}: bluetooth service disappeared", objpath);
+                context.disposeService(objpath, false, false);
+                return;
+            } else if (iface.equals(BluezCommons.BLUEZ_IFACE_CHARACTERISTIC)) {
+                logger.debug("{}: bluetooth service characteristic disappeared", objpath);
+                context.disposeCharacteristic(objpath, false, false);
+                return;
+            } else if (iface.equals(BluezCommons.BLUEZ_IFACE_DESCRIPTOR)) {
+                logger.debug("{}: bluetooth characteristic descriptor disappeared", objpath);
+                context.disposeDescriptor(objpath, false, false);
+                return;
+            }
+        } finally {
+            probeLock.unlock();
         }
     }
 
@@ -210,25 +430,46 @@ public class BluezFactory implements BluetoothObjectFactory {
     }
 
     private void populate() {
-        Pattern adapterPattern = BluezCommons.makeAdapterPathPattern();
-        Pattern devicePattern = BluezCommons.makeDevicePathPattern(".*/hci[0-9a-fA-F]+");
-        DBusConnection systemBus = context.getDbusConnection();
+        populate(getManagedObjects());
+    }
 
-        ObjectManager objectManager = null;
+    /**
+     * Bring registries in line with objects exported by bluez, keeping handles (along with their listeners)
+     * of objects still exported. New objects get their handles, surviving ones get their properties refreshed.
+     * @param dropAll whether to drop handles of all objects gone, or only the ones under adapters exported
+     */
+    private void resync(boolean dropAll) {
+        Map<Path, Map<String, Map<String, Variant>>> allObjects = getManagedObjects();
+        Set<String> present = allObjects.keySet().stream()
+            .map(Path::toString)
+            .collect(Collectors.toSet());
 
-        /* populate adapters */
+        int disposed;
+        // signals probing objects meanwhile are applied before or after the whole snapshot
+        probeLock.lock();
         try {
-            synchronized (context.buslock) {
-                objectManager = context.getDbusConnection().getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
-            }
-        } catch (DBusException e) {
-            throw new BluezException("Unable to access dbus objects to enumerate bluetooth adapters", e);
+            disposed = context.disposeAbsent(present, (path) -> {
+                return dropAll || present.contains(BluezCommons.parsePath(path, BluezAdapter.class));
+            });
+            populate(allObjects);
+        } finally {
+            probeLock.unlock();
         }
+        context.resumeNotifications();
+        logger.info("Resynchronized with bluetooth daemon, {} objects exported, {} handles dropped", present.size(), disposed);
+    }
+
+    private Map<Path, Map<String, Map<String, Variant>>> getManagedObjects() {
+        ObjectManager objectManager = context.getObjectManager();
 
         Map<Path, Map<String, Map<String, Variant>>> allObjects = null;
         try {
-            synchronized (context.buslock) {
+            ReentrantLock lock = context.getLane("/").lock;
+            lock.lock();
+            try {
                 allObjects = objectManager.GetManagedObjects();
+            } finally {
+                lock.unlock();
             }
         } catch (RuntimeException ex) {
             throw new BluezException("Error populating adapters", ex);
@@ -237,6 +478,12 @@ public class BluezFactory implements BluetoothObjectFactory {
         if (allObjects == null) {
             throw new BluezException("Error populating adapters, got no objects");
         }
+        return allObjects;
+    }
+
+    private void populate(Map<Path, Map<String, Map<String, Variant>>> allObjects) {
+        Pattern adapterPattern = BluezCommons.makeAdapterPathPattern();
+        Pattern devicePattern = BluezCommons.makeDevicePathPattern(".*/hci[0-9a-fA-F]+");
 
         // ensure adapters are populated before adding devices
         allObjects.entrySet().stream()
@@ -250,6 +497,19 @@ public class BluezFactory implements BluetoothObjectFactory {
             .forEach((entry) -> {
                 probeAdd(entry.getKey().toString(), BluezCommons.BLUEZ_IFACE_DEVICE, entry.getValue().get(BluezCommons.BLUEZ_IFACE_DEVICE));
             });
+
+        // then gatt objects of the devices, parents before their children
+        String[] gattInterfaces = { 
+            BluezCommons.BLUEZ_IFACE_SERVICE, BluezCommons.BLUEZ_IFACE_CHARACTERISTIC, BluezCommons.BLUEZ_IFACE_DESCRIPTOR 
+        };
+        for (String iface : gattInterfaces) {
+            for (Map.Entry<Path, Map<String, Map<String, Variant>>> entry : allObjects.entrySet()) {
+                Map<String, Variant> vals = entry.getValue().get(iface);
+                if (vals != null) {
+                    probeAdd(entry.getKey().toString(), iface, vals);
+                }
+            }
+        }
     }
 
     @Override
@@ -288,10 +548,7 @@ public class BluezFactory implements BluetoothObjectFactory {
 
     @Override
     public Set<DiscoveredAdapter> getDiscoveredAdapters() throws BluezException {
-        Collection<BluezAdapter> adapters = null;
-        synchronized (context) {
-                adapters = context.getManagedAdapters();
-        }
+        Collection<BluezAdapter> adapters = context.getManagedAdapters();
 
         if (adapters.isEmpty()) {
             // have no bluetooth adapters, perhaps bluez reset?
@@ -305,19 +562,11 @@ public class BluezFactory implements BluetoothObjectFactory {
 
     @Override
     public Set<DiscoveredDevice> getDiscoveredDevices() throws BluezException {
-        Collection<BluezDevice> devices = null;
-        Collection<BluezAdapter> adapters = Collections.emptySet();
-
-        synchronized (context) {
-            adapters = context.getManagedAdapters();
-        }
-
+        Collection<BluezAdapter> adapters = context.getManagedAdapters();
         adapters.stream()
             .forEach((adapter) -> { adapter.getDevices(); });
 
-        synchronized (context) {
-            devices = context.getManagedDevices();
-        }
+        Collection<BluezDevice> devices = context.getManagedDevices();
 
         return devices.stream()
             .map((device) -> { device.activate(); return device; })
@@ -334,9 +583,206 @@ public class BluezFactory implements BluetoothObjectFactory {
         return BluezCommons.DBUSB_PROTOCOL_NAME;
     }
 
-    // done
     @Override
-    public void configure(Map<String, Object> config) { /* do nothing for now */ }
+    public void configure(Map<String, Object> config) {
+        if (config == null) {
+            return;
+        }
+
+        context.setDeviceLimit((int)configLong(config, CONFIG_DEVICE_LIMIT, context.getDeviceLimit()));
+        context.setDeviceIdleTimeout(SECONDS.toMillis(
+            configLong(config, CONFIG_DEVICE_IDLE_TIMEOUT, MILLISECONDS.toSeconds(context.getDeviceIdleTimeout()))));
+        context.setSignalNarrowing(configBoolean(config, CONFIG_SIGNAL_NARROWING, context.isSignalNarrowing()));
+        context.setSignalCoalescingWindow(
+            configLong(config, CONFIG_SIGNAL_COALESCING_WINDOW, context.getSignalCoalescingWindow()));
+        context.setSignalAccounting(configBoolean(config, CONFIG_SIGNAL_ACCOUNTING, context.isSignalAccounting()));
+        context.setCallConnections((int)configLong(config, CONFIG_CALL_CONNECTIONS, context.getCallConnections()));
+        context.setPowerTimeout(configLong(config, CONFIG_POWER_TIMEOUT, context.getPowerTimeout()));
+        context.setPowerSettleTime(configLong(config, CONFIG_POWER_SETTLE_TIME, context.getPowerSettleTime()));
+
+        LoadShedding shedding = context.getLoadShedding();
+        shedding.setRate(configLong(config, CONFIG_SIGNAL_RATE_LIMIT, (long)shedding.getRate()));
+        shedding.setBurst(configLong(config, CONFIG_SIGNAL_RATE_BURST, (long)shedding.getBurst()));
+        shedding.setSampling((int)configLong(config, CONFIG_SIGNAL_SAMPLING, shedding.getSampling()));
+
+        ValueReads reads = context.getValueReads();
+        reads.setReuseWindow(configLong(config, CONFIG_READ_REUSE_WINDOW, reads.getReuseWindow()));
+        reads.setStaticCaching(configBoolean(config, CONFIG_VALUE_CACHE_STATIC, reads.isStaticCaching()));
+        for (String key : config.keySet()) {
+            if (key.startsWith(CONFIG_VALUE_CACHE_TTL_PREFIX)) {
+                long ttl = configLong(config, key, 0);
+                reads.setTtl(key.substring(CONFIG_VALUE_CACHE_TTL_PREFIX.length()), (ttl < 0) ? ttl : SECONDS.toMillis(ttl));
+            }
+        }
+
+        if (config.containsKey(CONFIG_COALESCE_WRITES)) {
+            context.getValueWrites().setCoalesced(AdmissionFilter.parseList(config.get(CONFIG_COALESCE_WRITES)));
+        }
+
+        for (String option : ADMISSION_OPTIONS) {
+            if (config.containsKey(option)) {
+                configureAdmission(config);
+                break;
+            }
+        }
+    }
+
+    private void configureAdmission(Map<String, Object> config) {
+        AdmissionFilter filter;
+        try {
+            Object minRssi = config.get(CONFIG_ADMIT_MIN_RSSI);
+            filter = new AdmissionFilter(
+                AdmissionFilter.upperCase(AdmissionFilter.parseList(config.get(CONFIG_ADMIT_ADDRESSES))),
+                AdmissionFilter.upperCase(AdmissionFilter.parseList(config.get(CONFIG_DENY_ADDRESSES))),
+                AdmissionFilter.upperCase(AdmissionFilter.parseList(config.get(CONFIG_ADMIT_OUI))),
+                AdmissionFilter.fullUuids(AdmissionFilter.parseList(config.get(CONFIG_ADMIT_SERVICE_UUIDS))),
+                AdmissionFilter.parseIds(AdmissionFilter.parseList(config.get(CONFIG_ADMIT_MANUFACTURER_IDS))),
+                (minRssi == null || minRssi.toString().trim().isEmpty()) ? null : Short.valueOf(minRssi.toString().trim()));
+        } catch (NumberFormatException e) {
+            logger.error("Invalid device admission configuration, keeping the current one: {}", e.getMessage());
+            return;
+        }
+
+        context.setAdmissionFilter(filter);
+    }
+
+    static boolean configBoolean(Map<String, Object> config, String key, boolean fallback) {
+        Object value = config.get(key);
+        if (value == null) {
+            return fallback;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean)value;
+        }
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+
+    static long configLong(Map<String, Object> config, String key, long fallback) {
+        Object value = config.get(key);
+        if (value == null) {
+            return fallback;
+        }
+        if (value instanceof Number) {
+            return ((Number)value).longValue();
+        }
+
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            logger.error("Invalid value of configuration option {}: {}", key, value);
+            return fallback;
+        }
+    }
+
+    /**
+     * Report bluez objects generating the most PropertiesChanged signals, with a breakdown by property.
+     * @param count maximum number of objects reported
+     * @param window length of the window the rate is computed over, at most one minute
+     * @param unit unit of the window
+     * @return objects ordered by signal rate, highest first
+     */
+    public List<SignalRate> getTopTalkers(int count, long window, TimeUnit unit) {
+        return context.getTopTalkers(count, (int)Math.min(SignalAccounting.WINDOW, Math.max(1, unit.toSeconds(window))));
+    }
+
+    /**
+     * Get load shedding counters: signals shed and objects degraded, suspended and restored.
+     */
+    public Map<String, Long> getLoadSheddingCounters() {
+        return context.getLoadShedding().getCounters();
+    }
+
+    /**
+     * Get characteristic read counters: remote reads, reads joining a remote one and reads served from a recent one.
+     */
+    public Map<String, Long> getReadCounters() {
+        return context.getValueReads().getCounters();
+    }
+
+    /**
+     * Get characteristic write counters: remote writes, coalesced writes superseded by a later value
+     * and pending writes abandoned as the write in flight failed.
+     */
+    public Map<String, Long> getWriteCounters() {
+        return context.getValueWrites().getCounters();
+    }
+
+    /**
+     * Read long value of a characteristic into sink, see {@link BluezCharacteristic#readLong}.
+     * @return number of bytes read
+     * @throws NotReadyException if the characteristic is not available
+     */
+    public int readLong(URL characteristicUrl, ByteBuffer sink) throws BluezException {
+        return getLongValueTarget(characteristicUrl).readLong(sink);
+    }
+
+    /**
+     * Write long value of a characteristic from source, see {@link BluezCharacteristic#writeLong}.
+     * @return number of bytes written
+     * @throws NotReadyException if the characteristic is not available
+     */
+    public int writeLong(URL characteristicUrl, ByteBuffer source) throws BluezException {
+        return getLongValueTarget(characteristicUrl).writeLong(source);
+    }
+
+    private BluezCharacteristic getLongValueTarget(URL characteristicUrl) throws BluezException {
+        Characteristic characteristic = getCharacteristic(characteristicUrl);
+        if (characteristic == null) {
+            throw new NotReadyException("Characteristic not available: " + characteristicUrl);
+        }
+        return (BluezCharacteristic)characteristic;
+    }
+
+    /**
+     * Power adapter on or off, see {@link BluezAdapter#setPoweredAsync}.
+     * @throws NotReadyException if the adapter is not known
+     */
+    public CompletableFuture<Boolean> setPoweredAsync(URL adapterUrl, boolean powered) throws BluezException {
+        BluezAdapter adapter = getAdapter(adapterUrl.getAdapterURL());
+        if (adapter == null) {
+            throw new NotReadyException("Adapter not available: " + adapterUrl);
+        }
+        return adapter.setPoweredAsync(powered);
+    }
+
+    /**
+     * Wait for property of an adapter, device or characteristic to satisfy the predicate,
+     * e.g. Connected or ServicesResolved of a device, see {@link BluezObjectBase#awaitProperty}.
+     * @throws NotReadyException if the object is not known
+     */
+    public <T> CompletableFuture<T> awaitProperty(URL url, String name, Predicate<T> predicate, long timeout, TimeUnit unit)
+            throws BluezException {
+        BluezObjectBase target = null;
+        try {
+            if (url.isCharacteristic()) {
+                target = context.getManagedCharacteristic(url);
+            } else if (url.isDevice()) {
+                target = context.getManagedDevice(url);
+            } else {
+                target = context.getManagedAdapter(url);
+            }
+        } catch (NullPointerException e) {
+            logger.debug("Unable to get object by URL: {}, reason: {}", url, e.getMessage());
+        }
+
+        if (target == null) {
+            throw new NotReadyException("Object not available: " + url);
+        }
+        return target.awaitProperty(name, predicate, timeout, unit);
+    }
+
+    /**
+     * Write values of multiple characteristics of a device in one go, see {@link BatchWrite}.
+     * @return outcome of every entry in order of entries
+     * @throws NotReadyException if the device is not known
+     */
+    public List<BatchWrite.Outcome> writeBatch(URL deviceUrl, List<BatchWrite.Entry> entries) throws BluezException {
+        BluezDevice device = getDevice(deviceUrl.getDeviceURL());
+        if (device == null) {
+            throw new NotReadyException("Device not available: " + deviceUrl);
+        }
+        return device.writeBatch(entries);
+    }
 
     /**
      * Disposing Bluez factory by closing/disposing all adapters, devices and services.
@@ -391,19 +837,24 @@ public class BluezFactory implements BluetoothObjectFactory {
 
     static void notifySafely(Runnable noticator, Logger logger, String path) {
         getNotificationService().submit(() -> {
+            BluezEvents.Scope event = BluezEvents.notification(path);
+            String outcome = BluezEvents.OUTCOME_ERROR;
             try {
                 noticator.run();
+                outcome = BluezEvents.OUTCOME_OK;
             } catch (RuntimeException e) {
                 logger.error("Notification on " + path + " error: " + e.toString() + " " + e.getCause().toString());
             } catch (Exception e) {
                 logger.error("Notification on " + path + " error: " + e.toString() + " " + e.getCause().toString());
+            } finally {
+                event.finish(outcome);
             }
         });
     }
 
     // done
     private static ExecutorService getNotificationService() {
-        return NOTIFICATION_SERVICE;
+        return BluezExecutors.notificationService();
     }
 
     // done
@@ -21,7 +21,6 @@ package cz.organovabanka.bluetooth.manager.transport.dbus;
  */
 
 import org.freedesktop.DBus;
-import org.freedesktop.dbus.DBusConnection;
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.DBusInterfaceName;
 import org.freedesktop.dbus.DBusMemberName;
@@ -57,7 +56,12 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -71,32 +75,31 @@ abstract class BluezObjectBase {
     // order - first do remote, then local part
 
     protected final BluezContext context;
-    protected final DBusConnection busConnection;
 
     protected final String dbusObjectPath;
     protected final String primaryInterface;
-    protected final Properties objectProperties;
-
-    protected final Map<String, Consumer<Variant>> handlers = new HashMap<String, Consumer<Variant>>();
 
     protected final PropertyCache cache = new PropertyCache();
+    // property tables by dbus interface, signals of other interfaces are dropped
+    private final Map<String, PropertyCache> caches = new ConcurrentHashMap<String, PropertyCache>();
 
     protected boolean allowRemoteCalls = true;
     protected int inactive = 0;
 
+    // time of last signal received for this object, used for registry eviction
+    protected volatile long lastSeen = System.currentTimeMillis();
+
+    // signal rate budget, see LoadShedding
+    final LoadShedding.Budget signalBudget = new LoadShedding.Budget();
+
+    // waiters for values of primary interface properties, see awaitProperty
+    private final PropertyWaiters waiters = new PropertyWaiters();
+
     protected BluezObjectBase(BluezContext context, String dbusObjectPath, String primaryInterface) throws BluezException {
         this.context = context;
-        this.busConnection = context.getDbusConnection();
         this.dbusObjectPath = dbusObjectPath;
         this.primaryInterface = primaryInterface;
-
-        try {
-            synchronized (context.buslock) {
-                this.objectProperties = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, dbusObjectPath, Properties.class);
-            }
-        } catch (DBusException e) {
-            throw new BluezException("Unable to access properties of " + dbusObjectPath + ": " + e.getMessage(), e);
-        }
+        this.caches.put(primaryInterface, cache);
 
         activate();
     }
@@ -105,15 +108,60 @@ abstract class BluezObjectBase {
         return cache;
     } 
 
+    /**
+     * Get property table of given dbus interface.
+     * @return the table or null, if properties of the interface are not tracked
+     */
+    public PropertyCache getCache(String iface) {
+        return caches.get(iface);
+    }
+
+    /**
+     * Start tracking properties of another dbus interface implemented by this object.
+     */
+    protected PropertyCache trackInterface(String iface) {
+        return caches.computeIfAbsent(iface, (key) -> { return new PropertyCache(); });
+    }
+
+    public boolean isPrimaryInterface(String iface) {
+        return primaryInterface.equals(iface);
+    }
+
+    /**
+     * Notify listeners of changed properties, objects with listeners dispatch through their PropertyDispatch table.
+     */
     public void commitNotifications(Map<String, Variant> changed) {
-        changed.entrySet().stream().forEach((entry) -> {
-            Consumer<Variant> handler = handlers.get(entry.getKey());
-            if (handler == null) {
-                return;
-            }
+        ;
+    }
+
+    /**
+     * Apply changed properties of the primary interface, already cached, to waiters and listeners.
+     */
+    public final void propertiesChanged(Map<String, Variant> changed) {
+        propertiesChanged(changed, changed);
+    }
+
+    /**
+     * Apply changed properties of the primary interface, notifying listeners of some of them only.
+     * @param notified changes to notify listeners of, the ones left when the signal is shed
+     */
+    public final void propertiesChanged(Map<String, Variant> changed, Map<String, Variant> notified) {
+        waiters.complete(changed);
+        if (!notified.isEmpty()) {
+            commitNotifications(notified);
+        }
+    }
 
-            handler.accept(entry.getValue());
-        });
+    /**
+     * Wait for property of the primary interface to satisfy the predicate, without polling.
+     * The future completes with the cached value right away, if it already satisfies the predicate,
+     * or with the first value delivered by PropertiesChanged signal that does.
+     * It fails with TimeoutException when the timeout passes, with BluezException when the object is disposed.
+     * @param timeout time to wait for, zero to wait until satisfied or disposed
+     * @return future of the satisfying value
+     */
+    public <T> CompletableFuture<T> awaitProperty(String name, Predicate<T> predicate, long timeout, TimeUnit unit) {
+        return waiters.await(name, predicate, cache, timeout, unit, dbusObjectPath);
     }
 
 
@@ -127,23 +175,57 @@ abstract class BluezObjectBase {
 
     protected abstract Logger getLogger();
 
+    protected Properties getPropertiesInterface() throws BluezException {
+        // not kept by the object, proxies belong to the lane currently serving it
+        return getRemoteInterface(Properties.class);
+    }
+
+    protected <I extends DBusInterface> I getRemoteInterface(Class<I> type) throws BluezException {
+        return context.getRemoteObject(type, dbusObjectPath);
+    }
+
+    /**
+     * Get the call lane serving this object.
+     */
+    protected BluezConnections.Lane lane() {
+        return context.getLane(dbusObjectPath);
+    }
+
     protected <T> T readProperty(String iface, String property) throws DBusException {
-        Properties properties = objectProperties;
-        synchronized(busConnection) {
-            if (!primaryInterface.equals(iface)) {
-                properties = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, dbusObjectPath, Properties.class);
+        // properties interface is the same for all interfaces of the object
+        Properties properties = getPropertiesInterface();
+        BluezEvents.Scope event = BluezEvents.remoteCall(dbusObjectPath, "Get");
+        String outcome = BluezEvents.OUTCOME_ERROR;
+        try {
+            ReentrantLock lock = lane().lock;
+            lock.lock();
+            try {
+                T value = (T)properties.Get(iface, property);
+                outcome = BluezEvents.OUTCOME_OK;
+                return value;
+            } finally {
+                lock.unlock();
             }
-            return (T)properties.Get(iface, property);
+        } finally {
+            event.finish(outcome);
         }
     }
 
     protected <T> void writeProperty(String iface, String property, T value) throws DBusException {
-        Properties properties = objectProperties;
-        synchronized (context.buslock) {
-            if (!primaryInterface.equals(iface)) {
-                properties = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, dbusObjectPath, Properties.class);
+        Properties properties = getPropertiesInterface();
+        BluezEvents.Scope event = BluezEvents.remoteCall(dbusObjectPath, "Set");
+        String outcome = BluezEvents.OUTCOME_ERROR;
+        try {
+            ReentrantLock lock = lane().lock;
+            lock.lock();
+            try {
+                properties.Set(iface, property, value);
+                outcome = BluezEvents.OUTCOME_OK;
+            } finally {
+                lock.unlock();
             }
-            properties.Set(iface, property, value);
+        } finally {
+            event.finish(outcome);
         }
     }
 
@@ -187,12 +269,21 @@ abstract class BluezObjectBase {
         return inactive >= 0;
     }
 
+    public void markSeen() {
+        lastSeen = System.currentTimeMillis();
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
     protected abstract void disposeRemote();
 
     protected abstract void disposeLocal(boolean doRemoteCalls, boolean recurse);
     
     protected void disposeLocalRemoteInterlink() {
         // then destroy interconnects
+        context.releaseRemoteObjects(dbusObjectPath);
     }
 
     protected void dispose(boolean doRemoteCalls, boolean recurse) {
@@ -205,6 +296,7 @@ abstract class BluezObjectBase {
         }
 
         disposeLocal(doRemoteCalls && allowRemoteCalls, recurse);
+        waiters.fail(new BluezException(dbusObjectPath + ": disposed"));
         disposeLocalRemoteInterlink();
     }
 
@@ -212,56 +304,91 @@ abstract class BluezObjectBase {
         obj.dispose(doRemoteCalls, recurse);
     }
 
-    protected <T> T callWithDispose(Callable<T> call, Runnable disposer) throws Exception, NotReadyException {
+    // failure classification of remote calls, compiled once instead of on every failed call
+    private static final Pattern METHOD_UNKNOWN_PATTERN = Pattern.compile("^.*Method \".*\" with signature \".*\" on interface .*$");
+    private static final Pattern NOT_CONNECTED_PATTERN = Pattern.compile("^.*[Nn]ot connected.*$");
+
+    /**
+     * Classify failed remote call. Calls of methods unknown to the remote object lead to disposal
+     * of this object, calls failed on disconnected devices raise NotReadyException, anything else
+     * is rethrown.
+     * @return outcome of the call, if the failure was consumed
+     */
+    protected String handleCallFailure(RuntimeException cause, Runnable disposer) throws NotReadyException {
+        String message = cause.getMessage();
+        if (message == null) {
+            throw cause;
+        }
+
+        if (METHOD_UNKNOWN_PATTERN.matcher(message).matches()) {
+            disposer.run();
+            return BluezEvents.OUTCOME_DISPOSED;
+        } else if (NOT_CONNECTED_PATTERN.matcher(message).matches()) {
+            throw new NotReadyException("Device is not connected " + getPath());
+        }
+        throw cause;
+    }
+
+    protected <T> T callWithDispose(String member, Callable<T> call, Runnable disposer) throws Exception, NotReadyException {
+        BluezEvents.Scope event = BluezEvents.remoteCall(dbusObjectPath, member);
+        String outcome = BluezEvents.OUTCOME_ERROR;
         try {
-            synchronized (context.buslock) {
-                return call.call();
+            T result;
+            ReentrantLock lock = lane().lock;
+            lock.lock();
+            try {
+                result = call.call();
+            } finally {
+                lock.unlock();
             }
+            outcome = BluezEvents.OUTCOME_OK;
+            return result;
         } catch (NotConnected cause) {
+            outcome = BluezEvents.OUTCOME_NOT_READY;
             throw new NotReadyException("Device is not connected " + getPath());
-        } catch (DBusExecutionException cause) {
-            if (cause.getMessage().matches("^.*Method \".*\" with signature \".*\" on interface .*$")) {
-                disposer.run();
-            } else if (cause.getMessage().matches("^.*[Nn]ot connected.*$")) {
-                throw new NotReadyException("Device is not connected " + getPath());
-            } else {
-                throw cause;
-            }
+        } catch (NotReadyException cause) {
+            outcome = BluezEvents.OUTCOME_NOT_READY;
+            throw cause;
         } catch (RuntimeException cause) {
-            if (cause.getMessage().matches("^.*Method \".*\" with signature \".*\" on interface .*$")) {
-                disposer.run();
-            } else if (cause.getMessage().matches("^.*[Nn]ot connected.*$")) {
-                throw new NotReadyException("Device is not connected " + getPath());
-            } else {
-                throw cause;
+            try {
+                outcome = handleCallFailure(cause, disposer);
+            } catch (NotReadyException notReady) {
+                outcome = BluezEvents.OUTCOME_NOT_READY;
+                throw notReady;
             }
+        } finally {
+            event.finish(outcome);
         }
         return null;
     }
 
-    protected void callWithDispose(Runnable call, Runnable disposer) throws NotReadyException {
+    protected void callWithDispose(String member, Runnable call, Runnable disposer) throws NotReadyException {
+        BluezEvents.Scope event = BluezEvents.remoteCall(dbusObjectPath, member);
+        String outcome = BluezEvents.OUTCOME_ERROR;
         try {
-            synchronized (context.buslock) {
+            ReentrantLock lock = lane().lock;
+            lock.lock();
+            try {
                 call.run();
+            } finally {
+                lock.unlock();
             }
+            outcome = BluezEvents.OUTCOME_OK;
         } catch (NotConnected cause) {
+            outcome = BluezEvents.OUTCOME_NOT_READY;
             throw new NotReadyException("Device is not connected " + getPath());
-        } catch (DBusExecutionException cause) {
-            if (cause.getMessage().matches("^.*Method \".*\" with signature \".*\" on interface .*$")) {
-                disposer.run();
-            } else if (cause.getMessage().matches("^.*[Nn]ot connected.*$")) {
-                throw new NotReadyException("Device is not connected " + getPath());
-            } else {
-                throw cause;
-            }
+        } catch (NotReadyException cause) {
+            outcome = BluezEvents.OUTCOME_NOT_READY;
+            throw cause;
         } catch (RuntimeException cause) {
-            if (cause.getMessage().matches("^.*Method \".*\" with signature \".*\" on interface .*$")) {
-                disposer.run();
-            } else if (cause.getMessage().matches("^.*[Nn]ot connected.*$")) {
-                throw new NotReadyException("Device is not connected " + getPath());
-            } else {
-                throw cause;
+            try {
+                outcome = handleCallFailure(cause, disposer);
+            } catch (NotReadyException notReady) {
+                outcome = BluezEvents.OUTCOME_NOT_READY;
+                throw notReady;
             }
+        } finally {
+            event.finish(outcome);
         }
     }
 }
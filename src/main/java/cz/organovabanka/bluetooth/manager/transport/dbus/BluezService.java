@@ -48,12 +48,22 @@ class BluezService extends BluezObjectBase implements Service {
     private static final Logger logger = LoggerFactory.getLogger(BluezService.class);
 
     BluezService(BluezContext context, String dbusObjectPath) {
+        this(context, dbusObjectPath, Collections.<String, Variant>emptyMap());
+    }
+
+    BluezService(BluezContext context, String dbusObjectPath, Map<String, Variant> properties) {
         super(context, dbusObjectPath, BluezCommons.BLUEZ_IFACE_SERVICE);
 
         // setup default values of cached attributes
-        cache.set("UUID", "invalid-uuid");
+        cache.setDefault("UUID", "invalid-uuid");
         cache.set("url", BluezCommons.DBUSB_PROTOCOL_NAME + "://XX:XX:XX:XX:XX:XX/YY:YY:YY:YY:YY:YY/0000180f-0000-1000-8000-00805f9b34fb");
 
+        // take values delivered by bluez, resort to remote calls only for missing ones
+        cache.update(properties);
+        if (!properties.containsKey("UUID")) {
+            getUUIDRemote();
+        }
+
         updateURL();
     }
 
@@ -62,11 +72,14 @@ class BluezService extends BluezObjectBase implements Service {
     }   
 
     protected void updateURL() throws BluezException {
-        // this is the remote part of getURL
+        // derived from the managed device, which is not created here, so that admission and eviction hold
         try {
-            String devicePath = getDevicePath();
-            BluezDevice device = new BluezDevice(context, devicePath);
-            URL url = device.getURL().copyWithService(getUUID());
+            BluezDevice device = context.getManagedDevice(getDevicePath(), false);
+            if (device == null) {
+                getLogger().error("{}: Unable to update URL, device not managed", dbusObjectPath);
+                return;
+            }
+            URL url = device.getURL().copyWithService(cache.<String>get("UUID"));
             cache.set("url", url.toString());
         } catch (BluezException e) {
             getLogger().error("{}: Unable to update URL, reason: {}", dbusObjectPath, e.getMessage());
@@ -114,12 +127,10 @@ class BluezService extends BluezObjectBase implements Service {
 
         Map<Path, Map<String, Map<String, Variant>>> allObjects = null;
         try {
-            ObjectManager objectManager = busConnection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+            ObjectManager objectManager = context.getObjectManager();
             allObjects = objectManager.GetManagedObjects();
         } catch (RuntimeException e) {
             throw new BluezException("Unable to access dbus object manager " + dbusObjectPath, e); 
-        } catch (DBusException e) {
-            throw new BluezException("Unable to enumerate bluetooth objects when processing " + dbusObjectPath, e); 
         }
 
         try {
@@ -127,15 +138,31 @@ class BluezService extends BluezObjectBase implements Service {
                 .filter((entry) -> { return characteristicPattern.matcher(entry.getKey().toString()).matches(); })
                 .map((entry) -> {
                     String objpath = entry.getKey().toString();
-                    BluezCharacteristic characteristic = context.getManagedCharacteristic(objpath, true);
-    
                     Map<String, Map<String, Variant>> interfaces = entry.getValue();
                     Map<String, Variant> vals = interfaces.get(BluezCommons.BLUEZ_IFACE_CHARACTERISTIC);
-                    characteristic.getCache().update(vals);
+
+                    BluezCharacteristic characteristic = context.getManagedCharacteristic(objpath, vals);
+                    if (vals != null) {
+                        characteristic.getCache().update(vals);
+                    }
     
                     return characteristic;
                 })
                 .collect(Collectors.toList());
+
+            // register descriptors of the characteristics from the same scan
+            for (BluezCharacteristic characteristic : result) {
+                Pattern descriptorPattern = BluezCommons.makeDescriptorPathPattern(characteristic.getPath());
+                for (Map.Entry<Path, Map<String, Map<String, Variant>>> entry : allObjects.entrySet()) {
+                    Map<String, Variant> vals = entry.getValue().get(BluezCommons.BLUEZ_IFACE_DESCRIPTOR);
+                    if (vals == null || !descriptorPattern.matcher(entry.getKey().toString()).matches()) {
+                        continue;
+                    }
+
+                    context.getManagedDescriptor(entry.getKey().toString(), vals).getCache().update(vals);
+                }
+            }
+
             return Collections.unmodifiableList(result);
         } catch (RuntimeException e) {
             throw new BluezException("Unable to unpack bluez objects when processing " + dbusObjectPath, e); 
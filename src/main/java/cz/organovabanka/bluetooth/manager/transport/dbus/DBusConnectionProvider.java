@@ -0,0 +1,53 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Source of dbus connections of the transport, deciding which bus they connect to and how, e.g. a private
+ * daemon under test. Connections are always those of dbus-java 2.7, bindings of the transport are tied
+ * to its classes, so other dbus implementations cannot be plugged in here. Providers are looked up by
+ * {@link java.util.ServiceLoader} and selected by name through the {@value #PROVIDER_PROPERTY} system
+ * property, the system bus provider is used otherwise.
+ * @author Lukas Rucka
+ */
+public interface DBusConnectionProvider {
+    /** System property holding name of the provider to use. */
+    String PROVIDER_PROPERTY = "cz.organovabanka.bluetooth.manager.transport.dbus.provider";
+
+    /**
+     * Name the provider is selected by.
+     */
+    String getName();
+
+    /**
+     * Open the connection receiving signals, which serves method calls unless call connections are configured.
+     */
+    DBusConnection openSignalConnection() throws DBusException;
+
+    /**
+     * Open a connection of its own for method calls, distinct from the signal connection and from other lanes.
+     * @param lane index of the call lane
+     */
+    DBusConnection openCallConnection(int lane) throws DBusException;
+}
@@ -0,0 +1,230 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.Variant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Signal rate budget of bluez objects, protecting the dispatch path from a single chatty object.
+ * Every object has a token bucket refilled at the configured rate. An object running out of tokens
+ * is degraded to sampled delivery (one of N signals), an object still exceeding its budget is
+ * suspended altogether. Once its tokens refill back, the object is restored. Shedding applies to
+ * telemetry delivered to listeners only, cached properties and state changes are always applied.
+ * @author Lukas Rucka
+ */
+final class LoadShedding {
+    private static final Logger logger = LoggerFactory.getLogger(LoadShedding.class);
+
+    // suspended objects stay inactive until restored by their budget
+    private static final int SUSPEND_TTL = 1000;
+
+    enum State { NORMAL, SAMPLED, SUSPENDED }
+
+    // properties changing with every advertisement or notification, state changes are never shed
+    private static final Set<String> TELEMETRY = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+        "RSSI", "TxPower", "ManufacturerData", "ServiceData", "Value"
+    )));
+
+    /**
+     * Per object state of the token bucket, guarded by its own monitor.
+     */
+    static final class Budget {
+        private State state = State.NORMAL;
+        private double tokens = 0;
+        private long refilled = 0;
+        private long sampled = 0;
+
+        synchronized State getState() {
+            return state;
+        }
+    }
+
+    // signals per second per object, zero disables shedding
+    private volatile double rate = 0;
+    private volatile double burst = 0;
+    private volatile int sampling = 10;
+
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder degraded = new LongAdder();
+    private final LongAdder suspended = new LongAdder();
+    private final LongAdder restored = new LongAdder();
+
+    void setRate(double rate) {
+        this.rate = Math.max(0, rate);
+    }
+
+    double getRate() {
+        return rate;
+    }
+
+    /**
+     * Set number of signals an object may emit at once, zero for twice the rate.
+     */
+    void setBurst(double burst) {
+        this.burst = Math.max(0, burst);
+    }
+
+    double getBurst() {
+        return burst;
+    }
+
+    void setSampling(int sampling) {
+        this.sampling = Math.max(1, sampling);
+    }
+
+    int getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Charge a signal to the object's budget.
+     * @return whether the signal is to be delivered
+     */
+    boolean admit(BluezObjectBase target) {
+        double currentRate = rate;
+        Budget budget = target.signalBudget;
+
+        synchronized (budget) {
+            if (currentRate <= 0) {
+                if (budget.state != State.NORMAL) {
+                    transition(target, budget, State.NORMAL);
+                }
+                return true;
+            }
+
+            double capacity = (burst > 0) ? burst : 2 * currentRate;
+            // debt limit, reaching it while sampled means the object is way over budget
+            double floor = -capacity * sampling;
+
+            long now = System.nanoTime();
+            if (budget.refilled == 0) {
+                budget.tokens = capacity;
+            } else {
+                budget.tokens = Math.min(capacity, budget.tokens + (now - budget.refilled) * currentRate / 1e9);
+            }
+            budget.refilled = now;
+            budget.tokens = Math.max(floor, budget.tokens - 1);
+
+            switch (budget.state) {
+                case NORMAL:
+                    if (budget.tokens < 0) {
+                        transition(target, budget, State.SAMPLED);
+                    }
+                    break;
+                case SAMPLED:
+                    if (budget.tokens <= floor) {
+                        transition(target, budget, State.SUSPENDED);
+                    } else if (budget.tokens >= capacity / 2) {
+                        transition(target, budget, State.NORMAL);
+                    }
+                    break;
+                case SUSPENDED:
+                    if (budget.tokens >= capacity / 2) {
+                        transition(target, budget, State.NORMAL);
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            boolean deliver;
+            switch (budget.state) {
+                case SAMPLED:
+                    deliver = (++budget.sampled % sampling) == 0;
+                    break;
+                case SUSPENDED:
+                    deliver = false;
+                    break;
+                default:
+                    deliver = true;
+                    break;
+            }
+
+            if (!deliver) {
+                shed.increment();
+            }
+            return deliver;
+        }
+    }
+
+    /**
+     * Changes of a shed signal still to be delivered to listeners.
+     */
+    static Map<String, Variant> withoutTelemetry(Map<String, Variant> changed) {
+        Map<String, Variant> essential = null;
+        for (Map.Entry<String, Variant> entry : changed.entrySet()) {
+            if (TELEMETRY.contains(entry.getKey())) {
+                continue;
+            }
+            if (essential == null) {
+                essential = new HashMap<String, Variant>();
+            }
+            essential.put(entry.getKey(), entry.getValue());
+        }
+        return (essential == null) ? Collections.<String, Variant>emptyMap() : essential;
+    }
+
+    private void transition(BluezObjectBase target, Budget budget, State next) {
+        State previous = budget.state;
+        budget.state = next;
+        budget.sampled = 0;
+
+        switch (next) {
+            case SAMPLED:
+                degraded.increment();
+                logger.warn("{}: Signal rate over budget of {}/s, delivering one of {} signals", target.getPath(), rate, sampling);
+                break;
+            case SUSPENDED:
+                suspended.increment();
+                target.suspend(SUSPEND_TTL);
+                logger.warn("{}: Signal rate far over budget of {}/s, suspended", target.getPath(), rate);
+                break;
+            default:
+                restored.increment();
+                if (previous == State.SUSPENDED) {
+                    target.activateNow();
+                }
+                logger.info("{}: Signal rate back within budget, restored from {}", target.getPath(), previous);
+                break;
+        }
+    }
+
+    Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("shed", shed.sum());
+        counters.put("degraded", degraded.sum());
+        counters.put("suspended", suspended.sum());
+        counters.put("restored", restored.sum());
+        return counters;
+    }
+}
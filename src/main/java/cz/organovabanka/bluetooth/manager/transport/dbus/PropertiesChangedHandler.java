@@ -24,45 +24,178 @@ import org.freedesktop.DBus;
 import org.freedesktop.dbus.DBusInterfaceName;
 import org.freedesktop.dbus.DBusSigHandler;
 
+import org.freedesktop.dbus.Variant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Properties;
 
 /**
  * DBus signal handler for cached properties update.
  * Upon invocation, it first updates the target object cache and then
  * invokes notification waiting upon target object.
+ * With signal coalescing window set, changes of the same object are queued for the window
+ * and applied at once, with the latest value of each property winning.
  * @author Lukas Rucka
  */
 @DBusInterfaceName("org.freedesktop.DBus.Properties")
 public class PropertiesChangedHandler implements DBusSigHandler<Properties.PropertiesChanged> {
+    private static final Logger logger = LoggerFactory.getLogger(PropertiesChangedHandler.class);
+
     private final BluezContext context;
+    private final ScheduledExecutorService flushService;
+
+    // changes waiting for their coalescing window to pass, by object path and interface
+    private final Map<String, PendingChange> pending = new HashMap<String, PendingChange>();
 
-    public PropertiesChangedHandler(BluezContext context) {
+    public PropertiesChangedHandler(BluezContext context, ScheduledExecutorService flushService) {
         this.context = context;
+        this.flushService = flushService;
     }
 
     public void handle(Properties.PropertiesChanged signalled) {
         String objpath = signalled.getPath().toString();
+        BluezEvents.Scope event = BluezEvents.signal("PropertiesChanged", objpath);
+        String outcome = BluezEvents.OUTCOME_ERROR;
+
+        try {
+            context.recordSignal(objpath, signalled.getPropertiesChanged(), signalled.getPropertiesRemoved());
+
+            long window = context.getSignalCoalescingWindow();
+            // characteristic values are notification payloads, each of which is to reach subscribers
+            if (window > 0 && !BluezCommons.BLUEZ_IFACE_CHARACTERISTIC.equals(signalled.getIface())) {
+                outcome = enqueue(objpath, signalled, window);
+            } else {
+                outcome = dispatch(objpath, signalled.getIface(), signalled.getPropertiesChanged(), signalled.getPropertiesRemoved());
+            }
+        } finally {
+            event.finish(outcome);
+        }
+    }
+
+    private String enqueue(String objpath, Properties.PropertiesChanged signalled, long window) {
+        String key = objpath + ":" + signalled.getIface();
+
+        synchronized (pending) {
+            PendingChange change = pending.get(key);
+            if (change == null) {
+                change = new PendingChange(objpath, signalled.getIface());
+                pending.put(key, change);
+                try {
+                    flushService.schedule(() -> { flush(key); }, window, MILLISECONDS);
+                } catch (RuntimeException e) {
+                    // scheduler not available (shutting down), apply immediately instead
+                    pending.remove(key);
+                    logger.debug("{}: Unable to queue property change: {}", objpath, e.getMessage());
+                    return dispatch(objpath, signalled.getIface(), signalled.getPropertiesChanged(), signalled.getPropertiesRemoved());
+                }
+            }
+            change.merge(signalled.getPropertiesChanged(), signalled.getPropertiesRemoved());
+        }
+        return BluezEvents.OUTCOME_QUEUED;
+    }
+
+    private void flush(String key) {
+        PendingChange change;
+        synchronized (pending) {
+            change = pending.remove(key);
+        }
+        if (change == null) {
+            return;
+        }
+
+        BluezEvents.Scope event = BluezEvents.signal("PropertiesChangedBatch", change.path);
+        String outcome = BluezEvents.OUTCOME_ERROR;
+        try {
+            outcome = dispatch(change.path, change.iface, change.changed, change.removed);
+        } catch (RuntimeException e) {
+            logger.error("{}: Unable to apply queued property change: {}", change.path, e.getMessage());
+        } finally {
+            event.finish(outcome);
+        }
+    }
+
+    private String dispatch(String objpath, String iface, Map<String, Variant> changed, Collection<String> removed) {
         BluezObjectBase target = null;
 
         //synchronized (context) {
             if (objpath.equals(BluezCommons.parsePath(objpath, BluezAdapter.class))) {
                 target = context.getManagedAdapter(objpath, false);
             } else if (objpath.equals(BluezCommons.parsePath(objpath, BluezDevice.class))) {
-                target = context.getManagedDevice(objpath, false);
+                // devices not admitted are dropped, unless their changed properties let them pass the filter
+                if (context.isRejected(objpath) 
+                        && !(BluezCommons.BLUEZ_IFACE_DEVICE.equals(iface) && context.readmitDevice(objpath, changed, removed))) {
+                    return BluezEvents.OUTCOME_DROPPED;
+                }
+                // evicted handles are recreated as soon as the device shows up again
+                target = context.getManagedDevice(objpath, 
+                    context.isEvicted(objpath) && BluezCommons.BLUEZ_IFACE_DEVICE.equals(iface));
             } else if (objpath.equals(BluezCommons.parsePath(objpath, BluezCharacteristic.class))) {
                 target = context.getManagedCharacteristic(objpath, false);
             }
         //}
 
         if (target == null) { 
-            return;
+            return BluezEvents.OUTCOME_DROPPED;
+        }
+
+        // properties of interfaces not tracked by the target (MediaTransport1, Battery1, ...)
+        PropertyCache cache = target.getCache(iface);
+        if (cache == null) {
+            return BluezEvents.OUTCOME_DROPPED;
         }
 
-        //synchronized (target) {
+        // shed signals still count as activity, so that chatty objects are not evicted as idle
+        target.markSeen();
+
+        // cache is kept current regardless of the budget, only telemetry delivered to listeners is shed
+        cache.update(changed);
+        // invalidated properties are not to be served as fresh
+        cache.invalidate(removed);
+
+        boolean admitted = context.getLoadShedding().admit(target);
+        if (admitted) {
             target.activateNow();
-            target.getCache().update(signalled.getPropertiesChanged());
-            target.commitNotifications(signalled.getPropertiesChanged());
-        //}
+        }
+        if (target.isPrimaryInterface(iface)) {
+            target.propertiesChanged(changed, admitted ? changed : LoadShedding.withoutTelemetry(changed));
+        }
+        return admitted ? BluezEvents.OUTCOME_OK : BluezEvents.OUTCOME_SHED;
     }
-}
 
+    /**
+     * Property changes of a single object interface merged over the coalescing window.
+     */
+    private static final class PendingChange {
+        final String path;
+        final String iface;
+        final Map<String, Variant> changed = new HashMap<String, Variant>();
+        final Set<String> removed = new HashSet<String>();
+
+        PendingChange(String path, String iface) {
+            this.path = path;
+            this.iface = iface;
+        }
+
+        void merge(Map<String, Variant> newChanged, Collection<String> newRemoved) {
+            for (Map.Entry<String, Variant> entry : newChanged.entrySet()) {
+                changed.put(entry.getKey(), entry.getValue());
+                removed.remove(entry.getKey());
+            }
+            for (String name : newRemoved) {
+                changed.remove(name);
+                removed.add(name);
+            }
+        }
+    }
+}
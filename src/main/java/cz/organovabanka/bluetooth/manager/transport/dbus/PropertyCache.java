@@ -22,7 +22,10 @@ package cz.organovabanka.bluetooth.manager.transport.dbus;
 
 import org.freedesktop.dbus.Variant;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
 import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Properties;
@@ -30,11 +33,14 @@ import cz.organovabanka.bluetooth.manager.transport.dbus.interfaces.Properties;
 /**
  * Cache class for all Bluez object, effectively ConcurrentHashMap
  * with with update limited to non-url.
+ * Invalidated values fall back to defaults set upon object creation, {@link #contains} and
+ * {@link #getKnown} tell values delivered by bluez from defaults.
  * @author Lukas Rucka
  */
 public class PropertyCache implements Properties.Cache {
 
     private Map<String, Variant> values = new ConcurrentHashMap();
+    private Map<String, Variant> defaults = new ConcurrentHashMap();
 
     public PropertyCache() {
         ;
@@ -53,16 +59,70 @@ public class PropertyCache implements Properties.Cache {
         }
     }
 
+    /**
+     * Update values, telling which of them actually changed.
+     * @return the updated values differing from the ones cached before
+     */
+    public Map<String, Variant> updateChanged(Map<String, Variant> updates) {
+        Map<String, Variant> changed = new HashMap<String, Variant>();
+        for (Map.Entry<String, Variant> update : updates.entrySet()) {
+            Variant previous = values.get(update.getKey());
+            update(update.getKey(), update.getValue());
+            if (previous == null || !Objects.deepEquals(previous.getValue(), update.getValue().getValue())) {
+                changed.put(update.getKey(), update.getValue());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Get value of the property, its default if not known or invalidated.
+     */
     public <T> T get(String name) {
         Variant v = values.get(name);
-        return (T)(v.getValue());
+        if (v == null) {
+            v = defaults.get(name);
+        }
+        return (v == null) ? null : (T)(v.getValue());
+    }
+
+    /**
+     * Get value of the property as delivered, null if not known or invalidated.
+     */
+    public <T> T getKnown(String name) {
+        Variant v = values.get(name);
+        return (v == null) ? null : (T)(v.getValue());
+    }
+
+    /**
+     * Tell whether a value of the property is known, defaults do not count.
+     */
+    public boolean contains(String name) {
+        return values.containsKey(name);
+    }
+
+    public void setDefault(String name, Object value) {
+        defaults.put(name, toVariant(value));
+    }
+
+    public void invalidate(String name) {
+        values.remove(name);
+    }
+
+    public void invalidate(Collection<String> names) {
+        for (String name : names) {
+            invalidate(name);
+        }
     }
 
     public void set(String name, Object value) {
+        values.put(name, toVariant(value));
+    }
+
+    private static Variant toVariant(Object value) {
         if (Variant.class.isInstance(value)) {
-            values.put(name, (Variant)value);
-        } else {
-            values.put(name, new Variant(value));
+            return (Variant)value;
         }
+        return new Variant(value);
     }
 }
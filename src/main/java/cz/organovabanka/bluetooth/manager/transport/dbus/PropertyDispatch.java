@@ -0,0 +1,87 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.Variant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of property change handlers, shared by all objects of a class.
+ * Dispatch walks the (short) table and looks the properties up in the signal payload,
+ * so no iterator, stream or lambda gets allocated unless a handler actually notifies.
+ * @author Lukas Rucka
+ */
+final class PropertyDispatch<T extends BluezObjectBase> {
+
+    /**
+     * Handler of a single property, receiving the object changed.
+     */
+    interface Handler<T> {
+        void accept(T target, Variant value);
+    }
+
+    private final String[] names;
+    private final Handler<T>[] handlers;
+
+    private PropertyDispatch(List<String> names, List<Handler<T>> handlers) {
+        this.names = names.toArray(new String[names.size()]);
+        this.handlers = handlers.toArray(new Handler[handlers.size()]);
+    }
+
+    static <T extends BluezObjectBase> Builder<T> builder() {
+        return new Builder<T>();
+    }
+
+    void dispatch(T target, Map<String, Variant> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < names.length; ++i) {
+            Variant value = changed.get(names[i]);
+            if (value != null) {
+                handlers[i].accept(target, value);
+            }
+        }
+    }
+
+    static final class Builder<T extends BluezObjectBase> {
+        private final List<String> names = new ArrayList<String>();
+        private final List<Handler<T>> handlers = new ArrayList<Handler<T>>();
+
+        private Builder() {
+            ;
+        }
+
+        Builder<T> on(String property, Handler<T> handler) {
+            names.add(property.intern());
+            handlers.add(handler);
+            return this;
+        }
+
+        PropertyDispatch<T> build() {
+            return new PropertyDispatch<T>(names, handlers);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.Variant;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * Wait lists of a single bluez object, by property name.
+ * Waiters are completed from the PropertiesChanged dispatch, as soon as the cached value satisfies
+ * their predicate, or fail with TimeoutException once their timeout passes.
+ * @author Lukas Rucka
+ */
+final class PropertyWaiters {
+    private static final class Waiter {
+        final Predicate<Object> predicate;
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+        Waiter(Predicate<Object> predicate) {
+            this.predicate = predicate;
+        }
+    }
+
+    // guarded by its own monitor, most of the objects never get a waiter
+    private final Map<String, List<Waiter>> waiters = new HashMap<String, List<Waiter>>();
+
+    /**
+     * Register waiter for property value satisfying the predicate, checking the cached value first.
+     * @param timeout time to wait for, zero or negative to wait until satisfied or failed
+     */
+    <T> CompletableFuture<T> await(String name, Predicate<T> predicate, PropertyCache cache,
+            long timeout, TimeUnit unit, String path) {
+        Waiter waiter = new Waiter((Predicate<Object>)predicate);
+        synchronized (waiters) {
+            waiters.computeIfAbsent(name, (key) -> { return new ArrayList<Waiter>(); }).add(waiter);
+        }
+
+        // registered before the check, so that no change is missed in between, defaults of invalidated values do not count
+        Object current = cache.getKnown(name);
+        if (current != null && test(waiter, current)) {
+            remove(name, waiter);
+            waiter.future.complete(current);
+        } else if (waiter.future.isDone()) {
+            remove(name, waiter);
+        } else if (timeout > 0) {
+            ScheduledFuture<?> expiry = BluezExecutors.signalService().schedule(() -> {
+                remove(name, waiter);
+                waiter.future.completeExceptionally(
+                    new TimeoutException(path + ": " + name + " not satisfied within " + unit.toMillis(timeout) + "ms"));
+            }, timeout, unit);
+            waiter.future.whenComplete((value, error) -> { expiry.cancel(false); });
+        }
+        return (CompletableFuture<T>)waiter.future;
+    }
+
+    /**
+     * Complete waiters satisfied by changed values.
+     */
+    void complete(Map<String, Variant> changed) {
+        List<Waiter> satisfied = null;
+        List<Object> values = null;
+        synchronized (waiters) {
+            if (waiters.isEmpty()) {
+                return;
+            }
+
+            for (Map.Entry<String, Variant> entry : changed.entrySet()) {
+                List<Waiter> list = waiters.get(entry.getKey());
+                if (list == null) {
+                    continue;
+                }
+
+                Object value = entry.getValue().getValue();
+                for (Iterator<Waiter> it = list.iterator(); it.hasNext(); ) {
+                    Waiter waiter = it.next();
+                    if (waiter.future.isDone() || test(waiter, value)) {
+                        it.remove();
+                        if (satisfied == null) {
+                            satisfied = new ArrayList<Waiter>();
+                            values = new ArrayList<Object>();
+                        }
+                        satisfied.add(waiter);
+                        values.add(value);
+                    }
+                }
+                if (list.isEmpty()) {
+                    waiters.remove(entry.getKey());
+                }
+            }
+        }
+
+        // complete outside the monitor, dependent stages run in the completing thread
+        if (satisfied != null) {
+            for (int i = 0; i < satisfied.size(); ++i) {
+                satisfied.get(i).future.complete(values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Fail all waiters, e.g. when the object is disposed.
+     */
+    void fail(Throwable cause) {
+        List<Waiter> failed = new ArrayList<Waiter>();
+        synchronized (waiters) {
+            for (List<Waiter> list : waiters.values()) {
+                failed.addAll(list);
+            }
+            waiters.clear();
+        }
+        for (Waiter waiter : failed) {
+            waiter.future.completeExceptionally(cause);
+        }
+    }
+
+    private void remove(String name, Waiter waiter) {
+        synchronized (waiters) {
+            List<Waiter> list = waiters.get(name);
+            if (list != null && list.remove(waiter) && list.isEmpty()) {
+                waiters.remove(name);
+            }
+        }
+    }
+
+    private static boolean test(Waiter waiter, Object value) {
+        try {
+            return waiter.predicate.test(value);
+        } catch (RuntimeException e) {
+            // predicates of wrong type fail the waiter rather than the dispatch
+            waiter.future.completeExceptionally(e);
+            return false;
+        }
+    }
+}
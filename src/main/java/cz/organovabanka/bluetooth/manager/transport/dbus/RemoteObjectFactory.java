@@ -0,0 +1,77 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-interface factory of bluez dbus proxies, shared by all objects served by a call lane.
+ * Proxies are built on first use only, as dbus-java creates a reflective proxy
+ * (and keeps track of it) for every getRemoteObject call.
+ * @author Lukas Rucka
+ */
+final class RemoteObjectFactory<I extends DBusInterface> {
+    private final BluezConnections.Lane lane;
+    private final Class<I> type;
+    private final Map<String, I> proxies = new ConcurrentHashMap<String, I>();
+
+    RemoteObjectFactory(BluezConnections.Lane lane, Class<I> type) {
+        this.lane = lane;
+        this.type = type;
+    }
+
+    I get(String path) throws BluezException {
+        I proxy = proxies.get(path);
+        if (proxy != null) {
+            return proxy;
+        }
+
+        lane.lock.lock();
+        try {
+            proxy = proxies.get(path);
+            if (proxy != null) {
+                return proxy;
+            }
+
+            try {
+                proxy = lane.connection.getRemoteObject(BluezCommons.BLUEZ_DBUS_BUSNAME, path, type);
+            } catch (DBusException e) {
+                throw new BluezException("Unable to access dbus objects for " + path + ": " + e.getMessage(), e);
+            }
+            proxies.put(path, proxy);
+            return proxy;
+        } finally {
+            lane.lock.unlock();
+        }
+    }
+
+    void release(String path) {
+        proxies.remove(path);
+    }
+
+    void clear() {
+        proxies.clear();
+    }
+}
@@ -0,0 +1,195 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.Variant;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Per object accounting of received PropertiesChanged signals.
+ * Every object path gets a ring of one second buckets covering the last minute,
+ * with signal count, estimated payload size and per property change counts.
+ * Objects beyond the meter limit share a single meter under "*".
+ * @author Lukas Rucka
+ */
+final class SignalAccounting {
+    /** Longest window available, in seconds. */
+    static final int WINDOW = 60;
+    static final String OVERFLOW_PATH = "*";
+
+    private static final int METER_LIMIT = 4096;
+
+    private final Map<String, SignalMeter> meters = new ConcurrentHashMap<String, SignalMeter>();
+    // second of the last inline prune, full scans on the signal path happen at most once per second
+    private final AtomicLong pruned = new AtomicLong();
+
+    void record(String path, Map<String, Variant> changed, Collection<String> removed) {
+        long second = System.currentTimeMillis() / 1000;
+
+        SignalMeter meter = meters.get(path);
+        if (meter == null) {
+            long last = pruned.get();
+            if (meters.size() >= METER_LIMIT && last != second && pruned.compareAndSet(last, second)) {
+                prune(second);
+            }
+            String key = (meters.size() >= METER_LIMIT) ? OVERFLOW_PATH : path;
+            meter = meters.computeIfAbsent(key, (k) -> { return new SignalMeter(); });
+        }
+
+        meter.record(second, changed, removed);
+    }
+
+    /**
+     * Objects with the highest signal rate over the last window seconds.
+     */
+    List<SignalRate> top(int count, int window) {
+        long second = System.currentTimeMillis() / 1000;
+        int span = Math.max(1, Math.min(WINDOW, window));
+
+        return meters.entrySet().stream()
+            .map((entry) -> { return entry.getValue().rate(entry.getKey(), second, span); })
+            .filter((rate) -> { return rate.getSignals() > 0; })
+            .sorted(Comparator.comparingLong(SignalRate::getSignals).reversed())
+            .limit(Math.max(0, count))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Drop meters of objects without signals within the whole window.
+     */
+    void prune() {
+        prune(System.currentTimeMillis() / 1000);
+    }
+
+    private void prune(long second) {
+        meters.values().removeIf((meter) -> { return second - meter.last >= WINDOW; });
+    }
+
+    void clear() {
+        meters.clear();
+    }
+
+    static long estimateSize(Object value) {
+        if (value instanceof Variant) {
+            return estimateSize(((Variant)value).getValue());
+        }
+        if (value instanceof byte[]) {
+            return ((byte[])value).length;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence)value).length();
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 0;
+            for (Object item : (Collection<?>)value) {
+                size += estimateSize(item);
+            }
+            return size;
+        }
+        if (value instanceof Object[]) {
+            long size = 0;
+            for (Object item : (Object[])value) {
+                size += estimateSize(item);
+            }
+            return size;
+        }
+        // numbers, booleans and object paths
+        return 8;
+    }
+
+    private static final class SignalMeter {
+        private final long[] seconds = new long[WINDOW];
+        private final long[] signals = new long[WINDOW];
+        private final long[] bytes = new long[WINDOW];
+        private final Map<String, long[]> properties = new HashMap<String, long[]>();
+        private volatile long last = 0;
+
+        synchronized void record(long second, Map<String, Variant> changed, Collection<String> removed) {
+            int slot = (int)(second % WINDOW);
+            if (seconds[slot] != second) {
+                seconds[slot] = second;
+                signals[slot] = 0;
+                bytes[slot] = 0;
+                for (long[] counts : properties.values()) {
+                    counts[slot] = 0;
+                }
+            }
+
+            ++signals[slot];
+            for (Map.Entry<String, Variant> entry : changed.entrySet()) {
+                bytes[slot] += entry.getKey().length() + estimateSize(entry.getValue());
+                ++counts(entry.getKey())[slot];
+            }
+            for (String name : removed) {
+                bytes[slot] += name.length();
+                ++counts(name)[slot];
+            }
+            last = second;
+        }
+
+        private long[] counts(String property) {
+            long[] counts = properties.get(property);
+            if (counts == null) {
+                counts = new long[WINDOW];
+                properties.put(property, counts);
+            }
+            return counts;
+        }
+
+        synchronized SignalRate rate(String path, long second, int window) {
+            long signalSum = 0;
+            long byteSum = 0;
+            Map<String, Long> propertySums = new HashMap<String, Long>();
+
+            for (int slot = 0; slot < WINDOW; ++slot) {
+                if (second - seconds[slot] >= window || seconds[slot] > second) {
+                    continue;
+                }
+
+                signalSum += signals[slot];
+                byteSum += bytes[slot];
+                for (Map.Entry<String, long[]> entry : properties.entrySet()) {
+                    long count = entry.getValue()[slot];
+                    if (count > 0) {
+                        propertySums.merge(entry.getKey(), count, Long::sum);
+                    }
+                }
+            }
+
+            return new SignalRate(path, window, signalSum, byteSum, propertySums);
+        }
+    }
+}
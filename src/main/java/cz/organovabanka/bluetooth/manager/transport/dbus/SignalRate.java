@@ -0,0 +1,81 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of PropertiesChanged signal rate of a single bluez object over a time window.
+ * @author Lukas Rucka
+ */
+public final class SignalRate {
+    private final String path;
+    private final long window;
+    private final long signals;
+    private final long bytes;
+    private final Map<String, Long> properties;
+
+    SignalRate(String path, long window, long signals, long bytes, Map<String, Long> properties) {
+        this.path = path;
+        this.window = window;
+        this.signals = signals;
+        this.bytes = bytes;
+        this.properties = Collections.unmodifiableMap(properties);
+    }
+
+    /** Dbus object path, or "*" for signals of objects not tracked individually. */
+    public String getPath() {
+        return path;
+    }
+
+    /** Length of the window in seconds. */
+    public long getWindow() {
+        return window;
+    }
+
+    public long getSignals() {
+        return signals;
+    }
+
+    /** Estimated size of the property values received. */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getSignalsPerSecond() {
+        return (double)signals / window;
+    }
+
+    public double getBytesPerSecond() {
+        return (double)bytes / window;
+    }
+
+    /** Number of changes of individual properties within the window. */
+    public Map<String, Long> getProperties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.1f signals/s, %.1f B/s %s", path, getSignalsPerSecond(), getBytesPerSecond(), properties);
+    }
+}
@@ -0,0 +1,182 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.DBus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bus daemon match rules for PropertiesChanged signals of bluez.
+ * dbus-java subscribes to PropertiesChanged of all bluez objects and interfaces. Once installed,
+ * that broad rule is replaced by narrow ones (adapters, devices per adapter, notifying
+ * characteristics), so that the bus daemon filters out signals we would drop anyway.
+ * Rules are reference counted and kept across rebinds. All operations are guarded by the context's dbus lock.
+ * @author Lukas Rucka
+ */
+final class SignalSubscriptions {
+    private static final Logger logger = LoggerFactory.getLogger(SignalSubscriptions.class);
+
+    private static final String PROPERTIES_CHANGED = "type='signal',interface='org.freedesktop.DBus.Properties',member='PropertiesChanged'";
+
+    private final BluezContext context;
+
+    // desired rules (without sender) and their reference counts
+    private final Map<String, Integer> matches = new HashMap<String, Integer>();
+
+    private DBus dbus = null;
+    private String sender = null;
+    private boolean narrowed = false;
+
+    SignalSubscriptions(BluezContext context) {
+        this.context = context;
+        // adapters are few and always of interest
+        matches.put("path_namespace='" + BluezCommons.BLUEZ_DBUS_OBJECT + "',arg0='" + BluezCommons.BLUEZ_IFACE_ADAPTER + "'", 1);
+    }
+
+    static String devicesOf(String adapterPath) {
+        return "path_namespace='" + adapterPath + "',arg0='" + BluezCommons.BLUEZ_IFACE_DEVICE + "'";
+    }
+
+    static String characteristic(String characteristicPath) {
+        return "path='" + characteristicPath + "',arg0='" + BluezCommons.BLUEZ_IFACE_CHARACTERISTIC + "'";
+    }
+
+    private String rule(String match) {
+        return PROPERTIES_CHANGED + ",sender='" + sender + "'," + match;
+    }
+
+    private String broadRule() {
+        return PROPERTIES_CHANGED + ",sender='" + sender + "'";
+    }
+
+    void add(String match) {
+        context.dbusLock.lock();
+        try {
+            Integer count = matches.get(match);
+            matches.put(match, (count == null) ? 1 : count + 1);
+            if (count == null && narrowed) {
+                addMatch(match);
+            }
+        } finally {
+            context.dbusLock.unlock();
+        }
+    }
+
+    void remove(String match) {
+        context.dbusLock.lock();
+        try {
+            Integer count = matches.get(match);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                matches.put(match, count - 1);
+                return;
+            }
+
+            matches.remove(match);
+            if (narrowed) {
+                removeMatch(match);
+            }
+        } finally {
+            context.dbusLock.unlock();
+        }
+    }
+
+    /**
+     * Replace the broad rule registered by dbus-java for the given bluez sender with narrow ones.
+     * If any narrow rule gets rejected by the bus daemon, the broad rule is kept.
+     */
+    void install(DBus dbus, String sender) {
+        context.dbusLock.lock();
+        try {
+            this.dbus = dbus;
+            this.sender = sender;
+
+            try {
+                for (String match : matches.keySet()) {
+                    dbus.AddMatch(rule(match));
+                }
+                dbus.RemoveMatch(broadRule());
+                narrowed = true;
+                logger.debug("Narrowed bluez signal subscription to {} match rules", matches.size());
+            } catch (RuntimeException e) {
+                logger.warn("Unable to narrow bluez signal subscription, keeping the broad one: {}", e.getMessage());
+                for (String match : matches.keySet()) {
+                    removeMatch(match);
+                }
+            }
+        } finally {
+            context.dbusLock.unlock();
+        }
+    }
+
+    /**
+     * Restore the broad rule (as dbus-java removes it when unregistering the signal handler)
+     * and drop the narrow ones. Desired rules are kept for the next install.
+     */
+    void uninstall() {
+        context.dbusLock.lock();
+        try {
+            if (!narrowed) {
+                dbus = null;
+                sender = null;
+                return;
+            }
+
+            try {
+                dbus.AddMatch(broadRule());
+            } catch (RuntimeException e) {
+                logger.debug("Unable to restore broad bluez signal subscription: {}", e.getMessage());
+            }
+            for (String match : matches.keySet()) {
+                removeMatch(match);
+            }
+
+            narrowed = false;
+            dbus = null;
+            sender = null;
+        } finally {
+            context.dbusLock.unlock();
+        }
+    }
+
+    private void addMatch(String match) {
+        try {
+            dbus.AddMatch(rule(match));
+        } catch (RuntimeException e) {
+            logger.error("Unable to add signal match rule {}: {}", match, e.getMessage());
+        }
+    }
+
+    private void removeMatch(String match) {
+        try {
+            dbus.RemoveMatch(rule(match));
+        } catch (RuntimeException e) {
+            logger.debug("Unable to remove signal match rule {}: {}", match, e.getMessage());
+        }
+    }
+}
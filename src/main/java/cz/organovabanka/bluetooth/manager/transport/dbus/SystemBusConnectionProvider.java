@@ -0,0 +1,82 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ServiceLoader;
+
+/**
+ * Default connection provider, connecting to the system bus through dbus-java's own transport,
+ * with private connections not shared with other dbus-java users of the process.
+ * @author Lukas Rucka
+ */
+final class SystemBusConnectionProvider implements DBusConnectionProvider {
+    private static final Logger logger = LoggerFactory.getLogger(SystemBusConnectionProvider.class);
+
+    static final String NAME = "system";
+    private static final String SYSTEM_BUS_ADDRESS = "unix:path=/var/run/dbus/system_bus_socket";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    // dbus-java shares connections by address, an extra parameter makes every connection of the transport
+    // its own, so that other users of dbus-java within the process neither share nor close them
+
+    @Override
+    public DBusConnection openSignalConnection() throws DBusException {
+        return DBusConnection.getConnection(getSystemBusAddress() + ",lane=signal");
+    }
+
+    @Override
+    public DBusConnection openCallConnection(int lane) throws DBusException {
+        return DBusConnection.getConnection(getSystemBusAddress() + ",lane=" + lane);
+    }
+
+    private static String getSystemBusAddress() {
+        String address = System.getenv("DBUS_SYSTEM_BUS_ADDRESS");
+        return (address == null || address.isEmpty()) ? SYSTEM_BUS_ADDRESS : address;
+    }
+
+    /**
+     * Select provider named by the system property among the registered ones, the system bus one by default.
+     */
+    static DBusConnectionProvider select() throws BluezException {
+        String name = System.getProperty(PROVIDER_PROPERTY, NAME);
+        if (NAME.equals(name)) {
+            return new SystemBusConnectionProvider();
+        }
+
+        for (DBusConnectionProvider provider : ServiceLoader.load(DBusConnectionProvider.class)) {
+            if (name.equals(provider.getName())) {
+                logger.info("Using dbus connection provider {} ({})", name, provider.getClass().getName());
+                return provider;
+            }
+        }
+        throw new BluezException("No dbus connection provider named " + name);
+    }
+}
@@ -0,0 +1,129 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Policy and counters of characteristic value reads shared by all characteristics of the context.
+ * Concurrent reads of a characteristic always join a single remote read, its result may be reused
+ * for the reuse window. Values of characteristics with time to live are cached for that long,
+ * values known to be static (device information, generic access) until the device disconnects.
+ * @author Lukas Rucka
+ */
+final class ValueReads {
+    /** Time to live of values cached until invalidated. */
+    static final long INFINITE = Long.MAX_VALUE;
+
+    // device name, appearance, device information strings, system id, certification data and PnP id
+    private static final Set<String> STATIC_UUIDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+        fullUuid("2a00"), fullUuid("2a01"),
+        fullUuid("2a23"), fullUuid("2a24"), fullUuid("2a25"), fullUuid("2a26"),
+        fullUuid("2a27"), fullUuid("2a28"), fullUuid("2a29"), fullUuid("2a2a"),
+        fullUuid("2a50")
+    )));
+
+    private volatile boolean staticCaching = true;
+    // user defined time to live in milliseconds by characteristic uuid
+    private volatile Map<String, Long> ttls = Collections.<String, Long>emptyMap();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    // milliseconds a completed read is served to subsequent readers, zero disables reuse
+    private volatile long reuseWindow = 0;
+
+    final LongAdder remote = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+    final LongAdder reused = new LongAdder();
+
+    void setReuseWindow(long reuseWindow) {
+        this.reuseWindow = Math.max(0, reuseWindow);
+    }
+
+    long getReuseWindow() {
+        return reuseWindow;
+    }
+
+    void setStaticCaching(boolean staticCaching) {
+        this.staticCaching = staticCaching;
+    }
+
+    boolean isStaticCaching() {
+        return staticCaching;
+    }
+
+    /**
+     * Set time to live of value of given characteristic, zero disables caching, negative caches until invalidated.
+     */
+    void setTtl(String uuid, long ttl) {
+        Map<String, Long> updated = new HashMap<String, Long>(ttls);
+        updated.put(fullUuid(uuid), (ttl < 0) ? INFINITE : ttl);
+        ttls = updated;
+    }
+
+    /**
+     * Get time to live of cached value of given characteristic in milliseconds.
+     * @return zero, if not to be cached, INFINITE to be cached until invalidated
+     */
+    long getTtl(String uuid) {
+        String key = uuid.toLowerCase();
+        Long ttl = ttls.get(key);
+        if (ttl != null) {
+            return ttl;
+        }
+        return (staticCaching && STATIC_UUIDS.contains(key)) ? INFINITE : 0;
+    }
+
+    /**
+     * Expand 16 or 32 bit uuid to the full bluetooth base uuid form.
+     */
+    static String fullUuid(String uuid) {
+        String trimmed = uuid.trim().toLowerCase();
+        if (trimmed.startsWith("0x")) {
+            trimmed = trimmed.substring(2);
+        }
+        if (trimmed.length() == 4) {
+            return "0000" + trimmed + "-0000-1000-8000-00805f9b34fb";
+        }
+        if (trimmed.length() == 8) {
+            return trimmed + "-0000-1000-8000-00805f9b34fb";
+        }
+        return trimmed;
+    }
+
+    Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("remote", remote.sum());
+        counters.put("coalesced", coalesced.sum());
+        counters.put("reused", reused.sum());
+        counters.put("cacheHits", hits.sum());
+        counters.put("cacheMisses", misses.sum());
+        return counters;
+    }
+}
@@ -0,0 +1,66 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Policy and counters of characteristic value writes shared by all characteristics of the context.
+ * Writes of characteristics opted in to coalescing keep at most one write in flight, values written
+ * meanwhile replace each other and only the latest one is sent once the write in flight completes,
+ * abandoned ones count parked values the write of which failed.
+ * @author Lukas Rucka
+ */
+final class ValueWrites {
+    // full uuids of characteristics with coalesced writes
+    private volatile Set<String> coalesced = Collections.<String>emptySet();
+
+    final LongAdder remote = new LongAdder();
+    final LongAdder superseded = new LongAdder();
+    final LongAdder abandoned = new LongAdder();
+
+    void setCoalesced(Collection<String> uuids) {
+        Set<String> updated = new HashSet<String>();
+        for (String uuid : uuids) {
+            updated.add(ValueReads.fullUuid(uuid));
+        }
+        coalesced = updated;
+    }
+
+    boolean isCoalesced(String uuid) {
+        Set<String> current = coalesced;
+        return !current.isEmpty() && current.contains(uuid.toLowerCase());
+    }
+
+    Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("remote", remote.sum());
+        counters.put("superseded", superseded.sum());
+        counters.put("abandoned", abandoned.sum());
+        return counters;
+    }
+}
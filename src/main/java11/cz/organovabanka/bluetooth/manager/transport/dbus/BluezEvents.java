@@ -0,0 +1,151 @@
+package cz.organovabanka.bluetooth.manager.transport.dbus;
+
+/*-
+ * #%L
+ * org.sputnikdev:bluetooth-manager-dbus
+ * %%
+ * Copyright (C) 2018 Lukas Rucka
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder hooks for dbus calls, bluez signals and notification callbacks.
+ * This is the java 11+ variant, emitting JFR events. Events are only allocated
+ * and timed when enabled in the running recording.
+ * @author Lukas Rucka
+ */
+final class BluezEvents {
+    static final String OUTCOME_OK = "ok";
+    static final String OUTCOME_NOT_READY = "not-ready";
+    static final String OUTCOME_DISPOSED = "disposed";
+    static final String OUTCOME_DROPPED = "dropped";
+    static final String OUTCOME_QUEUED = "queued";
+    static final String OUTCOME_SHED = "shed";
+    static final String OUTCOME_ERROR = "error";
+
+    /**
+     * A single recorded operation, started on creation and committed by finish().
+     */
+    interface Scope {
+        void finish(String outcome);
+    }
+
+    private static final Scope NOOP = (outcome) -> { };
+
+    private BluezEvents() {
+        ;
+    }
+
+    static Scope remoteCall(String path, String member) {
+        RemoteCallEvent event = new RemoteCallEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+
+        event.path = path;
+        event.member = member;
+        event.begin();
+        return event;
+    }
+
+    static Scope signal(String signal, String path) {
+        SignalEvent event = new SignalEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+
+        event.signal = signal;
+        event.path = path;
+        event.begin();
+        return event;
+    }
+
+    static Scope notification(String path) {
+        NotificationEvent event = new NotificationEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+
+        event.path = path;
+        event.begin();
+        return event;
+    }
+
+    @Name("cz.organovabanka.bluetooth.dbus.RemoteCall")
+    @Label("D-Bus Remote Call")
+    @Description("Blocking method call on a bluez object")
+    @Category({"Bluetooth", "D-Bus"})
+    static final class RemoteCallEvent extends Event implements Scope {
+        @Label("Object Path")
+        String path;
+
+        @Label("Member")
+        String member;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Override
+        public void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("cz.organovabanka.bluetooth.dbus.Signal")
+    @Label("Bluez Signal")
+    @Description("Processing of a signal received from bluez")
+    @Category({"Bluetooth", "D-Bus"})
+    static final class SignalEvent extends Event implements Scope {
+        @Label("Signal")
+        String signal;
+
+        @Label("Object Path")
+        String path;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Override
+        public void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    @Name("cz.organovabanka.bluetooth.dbus.Notification")
+    @Label("Bluetooth Notification")
+    @Description("Execution of a bluetooth manager notification callback")
+    @Category({"Bluetooth", "D-Bus"})
+    static final class NotificationEvent extends Event implements Scope {
+        @Label("Source")
+        String path;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Override
+        public void finish(String outcome) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}